@@ -0,0 +1,193 @@
+package jmh.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import main.project_11.CharClass;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the tokenizer's character classification through the CharClass lookup table with
+ * the Unicode-aware Character methods and SYMBOLS.indexOf it replaced, then times both
+ * tokenizers end to end. Besides operations per second, each benchmark reports source bytes
+ * processed per second.
+ * <p>
+ * The input is a generated, comment-heavy class by default; pass "-p input=Xxx.jack" to run
+ * on a file instead.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CharClassBenchmark {
+
+    private static final String SYMBOLS = "{}()[].,;+-*/&|<>=~";
+
+    /**
+     * A generated class of the given size, or a .jack file.
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+
+        @Param({"comment-heavy-1m", "comment-heavy-8m"})
+        public String input;
+
+        Path tmp;
+        Path source;
+        String text;
+        long bytes;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            if (input.startsWith("comment-heavy-")) {
+                String size = input.substring("comment-heavy-".length());
+                int kb = Integer.parseInt(size.substring(0, size.length() - 1))
+                    << (size.endsWith("m") ? 10 : 0);
+                tmp = Files.createTempDirectory("charclass-bench");
+                source = tmp.resolve("Comments.jack");
+                Files.write(source,
+                    commentHeavySource(kb << 10).getBytes(StandardCharsets.UTF_8));
+            } else {
+                source = Paths.get(input);
+            }
+            text = Files.readString(source);
+            bytes = Files.size(source);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            if (tmp != null) {
+                Files.delete(source);
+                Files.delete(tmp);
+            }
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+        }
+    }
+
+    /**
+     * The per-character decisions the lexer made before CharClass, in the order it made them.
+     */
+    @Benchmark
+    public long classifyLegacy(Input in, Bytes counter) {
+        String text = in.text;
+        long sum = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                sum += 1;
+            } else if (SYMBOLS.indexOf(c) >= 0) {
+                sum += 2;
+            } else if (Character.isDigit(c)) {
+                sum += 3;
+            } else if (Character.isLetter(c) || c == '_') {
+                sum += 4;
+            } else if (Character.isLetterOrDigit(c)) {
+                sum += 5;
+            }
+        }
+        counter.bytes += in.bytes;
+        return sum;
+    }
+
+    @Benchmark
+    public long classifyTable(Input in, Bytes counter) {
+        String text = in.text;
+        long sum = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (CharClass.isWhitespace(c)) {
+                sum += 1;
+            } else if (CharClass.isSymbol(c)) {
+                sum += 2;
+            } else if (CharClass.isDigit(c)) {
+                sum += 3;
+            } else if (CharClass.isIdentifierStart(c)) {
+                sum += 4;
+            } else if (CharClass.isIdentifierPart(c)) {
+                sum += 5;
+            }
+        }
+        counter.bytes += in.bytes;
+        return sum;
+    }
+
+    @Benchmark
+    public long tokenizer10(Input in, Bytes counter) throws IOException {
+        main.project_10.JackTokenizer t = new main.project_10.JackTokenizer(in.source);
+        long n = 0;
+        while (t.hasMoreTokens()) {
+            t.advance();
+            n++;
+        }
+        counter.bytes += in.bytes;
+        return n;
+    }
+
+    @Benchmark
+    public long tokenizer11(Input in, Bytes counter) throws IOException {
+        main.project_11.JackTokenizer t = new main.project_11.JackTokenizer(in.source);
+        long n = 0;
+        while (t.hasMoreTokens()) {
+            t.advance();
+            n++;
+        }
+        counter.bytes += in.bytes;
+        return n;
+    }
+
+    /**
+     * A valid Jack class of roughly the given size where most of the text is comments and
+     * indentation, like heavily documented library code.
+     */
+    static String commentHeavySource(int approxBytes) {
+        StringBuilder sb = new StringBuilder(approxBytes + 1024);
+        sb.append("/** Generated, comment-heavy input for tokenizer benchmarks. */\n");
+        sb.append("class Comments {\n");
+        int n = 0;
+        while (sb.length() < approxBytes) {
+            sb.append("    /**\n");
+            sb.append("     * Returns the running total after adding the given amount.\n");
+            sb.append("     * The value wraps around like any other Hack arithmetic;\n");
+            sb.append("     * callers that care about overflow must check the sign of\n");
+            sb.append("     * the result themselves.\n");
+            sb.append("     */\n");
+            sb.append("    function int add").append(n).append("(int total, int amount) {\n");
+            sb.append("        // accumulate into the running total\n");
+            sb.append("        let total = total + amount; /* no overflow check */\n");
+            sb.append("        return total; // done\n");
+            sb.append("    }\n\n");
+            n++;
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,294 @@
+package jmh.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import main.project_11.Segment;
+import main.project_11.VMWriter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the compiler stages: the project_11 tokenizer, compileClass of project_10
+ * (XML) and project_11 (VM), and VMWriter on its own. Each stage runs on every program in the
+ * fixture folders and on generated inputs of increasing size.
+ * <p>
+ * Besides operations per second, the tokenizer reports tokens, compileClass source bytes and
+ * VMWriter commands processed per second. Run with "-prof gc" for the bytes allocated per
+ * operation (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CompilerBenchmark {
+
+    private static final int EMIT_COMMANDS = 100_000;
+
+    /**
+     * The .jack files of a fixture folder (relative to the "fixtures" system property,
+     * src/test/project_10 by default), or a generated class of the given size.
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+
+        @Param({"Square", "ExpressionLessSquare", "ArrayTest", "synthetic-64k", "synthetic-1m"})
+        public String input;
+
+        Path tmp;
+        Path xml;
+        List<Path> files;
+        List<byte[]> sources;
+        long bytes;
+        long tokens;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            tmp = Files.createTempDirectory("compiler-bench");
+            xml = tmp.resolve("out.xml");
+            if (input.startsWith("synthetic-")) {
+                String size = input.substring("synthetic-".length());
+                int kb = Integer.parseInt(size.substring(0, size.length() - 1))
+                    << (size.endsWith("m") ? 10 : 0);
+                Path file = tmp.resolve("Synthetic.jack");
+                Files.write(file, syntheticSource(kb << 10).getBytes(StandardCharsets.UTF_8));
+                files = List.of(file);
+            } else {
+                files = listJackFiles(
+                    Paths.get(System.getProperty("fixtures", "src/test/project_10"), input));
+            }
+            sources = new ArrayList<>();
+            for (Path file : files) {
+                byte[] source = Files.readAllBytes(file);
+                sources.add(source);
+                bytes += source.length;
+            }
+            tokens = tokenize(this, null);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(xml);
+            for (Path file : files) {
+                if (file.startsWith(tmp)) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(tmp);
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Tokens {
+
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            tokens = 0;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Commands {
+
+        public long commands;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            commands = 0;
+        }
+    }
+
+    @Benchmark
+    public void tokenizer(Input in, Tokens counter, Blackhole bh) {
+        tokenize(in, bh);
+        counter.tokens += in.tokens;
+    }
+
+    @Benchmark
+    public void compileClass10(Input in, Bytes counter, Blackhole bh) throws IOException {
+        for (Path file : in.files) {
+            try (main.project_10.CompilationEngine engine = new main.project_10.CompilationEngine(
+                new main.project_10.JackTokenizer(file), in.xml)) {
+                engine.compileClass();
+                bh.consume(engine);
+            }
+        }
+        counter.bytes += in.bytes;
+    }
+
+    @Benchmark
+    public void compileClass11(Input in, Bytes counter, Blackhole bh) throws IOException {
+        CountingChannel out = new CountingChannel();
+        for (byte[] source : in.sources) {
+            try (VMWriter vm = new VMWriter(out)) {
+                new main.project_11.CompilationEngine(
+                    new main.project_11.JackTokenizer(ByteBuffer.wrap(source)), vm).compileClass();
+            }
+        }
+        bh.consume(out.written);
+        counter.bytes += in.bytes;
+    }
+
+    /**
+     * The mix compileClass produces for typical code: mostly push and pop, some calls,
+     * arithmetic and control flow.
+     */
+    @Benchmark
+    public void vmWriter(Commands counter, Blackhole bh) throws IOException {
+        CountingChannel out = new CountingChannel();
+        try (VMWriter vm = new VMWriter(out)) {
+            for (int i = 0; i < EMIT_COMMANDS; i += 10) {
+                vm.writePush(Segment.ARGUMENT, 0);
+                vm.writePush(Segment.CONSTANT, i & 0x7fff);
+                vm.writeArithmetic("add");
+                vm.writePop(Segment.POINTER, 1);
+                vm.writePush(Segment.THAT, 0);
+                vm.writePush(Segment.LOCAL, 3);
+                vm.writeCall("Math.multiply", 2);
+                vm.writePop(Segment.LOCAL, 2);
+                vm.writeIf("WHILE_END12");
+                vm.writeGoto("WHILE_EXP12");
+            }
+        }
+        bh.consume(out.written);
+        counter.commands += EMIT_COMMANDS;
+    }
+
+    /**
+     * Runs the tokenizer over the input, passing each token type to bh if it is not null, and
+     * returns the number of tokens.
+     */
+    private static long tokenize(Input in, Blackhole bh) {
+        long n = 0;
+        for (byte[] source : in.sources) {
+            main.project_11.JackTokenizer t =
+                new main.project_11.JackTokenizer(ByteBuffer.wrap(source));
+            while (t.hasMoreTokens()) {
+                t.advance();
+                if (bh != null) {
+                    bh.consume(t.tokenType());
+                }
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Discards what is written to it, so output cost is only the writer's own.
+     */
+    private static final class CountingChannel implements WritableByteChannel {
+
+        long written = 0;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            written += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static List<Path> listJackFiles(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.jack")) {
+            for (Path p : ds) {
+                files.add(p);
+            }
+        }
+        files.sort(Comparator.comparing(Path::toString));
+        return files;
+    }
+
+    /**
+     * A valid Jack class of roughly the given size with a realistic statement mix: fields and
+     * statics, arrays, nested if/while, method and function calls, and string constants.
+     */
+    static String syntheticSource(int approxBytes) {
+        StringBuilder sb = new StringBuilder(approxBytes + 1024);
+        sb.append("class Synthetic {\n");
+        sb.append("    field int size, count;\n");
+        sb.append("    field Array data;\n");
+        sb.append("    static int total;\n\n");
+        sb.append("    constructor Synthetic new(int n) {\n");
+        sb.append("        let size = n;\n");
+        sb.append("        let data = Array.new(n);\n");
+        sb.append("        return this;\n");
+        sb.append("    }\n\n");
+        int n = 0;
+        while (sb.length() < approxBytes) {
+            sb.append("    method int step").append(n).append("(int x, int y) {\n");
+            sb.append("        var int i, acc;\n");
+            sb.append("        var String s;\n");
+            sb.append("        let i = 0;\n");
+            sb.append("        let acc = x * ").append(n % 97 + 2).append(";\n");
+            sb.append("        while (i < size) {\n");
+            sb.append("            if ((data[i] > y) & ~(i = ").append(n % 13).append(")) {\n");
+            sb.append("                let acc = acc + (data[i] / 2) - y;\n");
+            sb.append("            } else {\n");
+            sb.append("                let data[i] = data[i + 1] | -x;\n");
+            sb.append("            }\n");
+            sb.append("            let i = i + 1;\n");
+            sb.append("        }\n");
+            sb.append("        let s = \"step ").append(n).append(" done\";\n");
+            sb.append("        do Output.printString(s);\n");
+            sb.append("        do s.dispose();\n");
+            sb.append("        let total = total + Math.max(acc, count);\n");
+            sb.append("        return acc;\n");
+            sb.append("    }\n\n");
+            n++;
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+}
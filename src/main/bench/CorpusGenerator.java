@@ -0,0 +1,423 @@
+package main.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Writes a folder of valid, deterministic Jack programs for scaling tests: classes C0 .. Cn-1
+ * plus a Main that calls every subroutine of them. The same seed and knobs always produce the
+ * same files, and each class only depends on its own index, so any class can be regenerated on
+ * its own.
+ * <p>
+ * Every name used is declared: functions only call functions of their own or lower-numbered
+ * classes, methods additionally call earlier methods of their class, and fields are only used
+ * in methods and constructors.
+ */
+public class CorpusGenerator {
+
+    private static final String USAGE = "Usage: CorpusGenerator [--seed N] [--classes N]"
+        + " [--size MB] [--subroutines N] [--statements N] [--depth N] [--expr-length N]"
+        + " [--string-density P] [--comment-density P] <outDir>";
+
+    private static final String[] OPS = {"+", "-", "*", "/", "&", "|", "<", ">", "="};
+    private static final String[] WORDS = {"alpha", "beta", "gamma", "delta", "value", "total",
+        "count", "index", "result", "done", "error", "ok", "line", "next"};
+
+    long seed = 1;
+    int classes = 10;
+    int subroutines = 10;
+    int statements = 8;
+    int depth = 3;
+    int exprLength = 4;
+    double stringDensity = 0.1;
+    double commentDensity = 0.2;
+
+    // state of the subroutine being generated
+    private Random random;
+    private int classIndex;
+    private int subroutineIndex;
+    private boolean inMethod;
+
+    public static void main(String[] args) throws IOException {
+        CorpusGenerator g = new CorpusGenerator();
+        long sizeBytes = -1;
+        Path out = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    if (out != null || i != args.length - 1) {
+                        throw new IllegalArgumentException(arg);
+                    }
+                    out = Paths.get(arg);
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException(arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--seed":
+                        g.seed = Long.parseLong(value);
+                        break;
+                    case "--classes":
+                        g.classes = positive(value);
+                        break;
+                    case "--size":
+                        sizeBytes = (long) (Double.parseDouble(value) * 1024 * 1024);
+                        break;
+                    case "--subroutines":
+                        g.subroutines = positive(value);
+                        break;
+                    case "--statements":
+                        g.statements = positive(value);
+                        break;
+                    case "--depth":
+                        g.depth = Integer.parseInt(value);
+                        break;
+                    case "--expr-length":
+                        g.exprLength = positive(value);
+                        break;
+                    case "--string-density":
+                        g.stringDensity = Double.parseDouble(value);
+                        break;
+                    case "--comment-density":
+                        g.commentDensity = Double.parseDouble(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(arg);
+                }
+            }
+            if (out == null) {
+                throw new IllegalArgumentException("missing outDir");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        Files.createDirectories(out);
+        long bytes = (sizeBytes < 0) ? g.generate(out) : g.generate(out, sizeBytes);
+        System.out.printf("Wrote %d classes (%.1f MB) to %s%n",
+            g.classes + 1, bytes / (1024.0 * 1024.0), out);
+    }
+
+    private static int positive(String value) {
+        int n = Integer.parseInt(value);
+        if (n < 1) {
+            throw new IllegalArgumentException(value);
+        }
+        return n;
+    }
+
+    /**
+     * Writes the configured number of classes and Main. Returns the bytes written.
+     */
+    public long generate(Path dir) throws IOException {
+        long bytes = 0;
+        for (int k = 0; k < classes; k++) {
+            bytes += write(dir.resolve("C" + k + ".jack"), classSource(k));
+        }
+        return bytes + write(dir.resolve("Main.jack"), mainSource());
+    }
+
+    /**
+     * Writes classes until about targetBytes have been written, then Main; the number of
+     * classes is updated to the count actually written. Returns the bytes written.
+     */
+    public long generate(Path dir, long targetBytes) throws IOException {
+        long bytes = 0;
+        int k = 0;
+        while (bytes < targetBytes || k == 0) {
+            bytes += write(dir.resolve("C" + k + ".jack"), classSource(k));
+            k++;
+        }
+        classes = k;
+        return bytes + write(dir.resolve("Main.jack"), mainSource());
+    }
+
+    private static long write(Path file, String source) throws IOException {
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        Files.write(file, bytes);
+        return bytes.length;
+    }
+
+    /**
+     * Main: main runs callCk for every class, which constructs a Ck and calls each of its
+     * functions and methods, so no generated subroutine is dead code.
+     */
+    public String mainSource() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("/** Entry point of the generated corpus. */\n");
+        sb.append("class Main {\n");
+        sb.append("    function void main() {\n");
+        sb.append("        var int x;\n");
+        for (int k = 0; k < classes; k++) {
+            sb.append("        let x = Main.callC").append(k).append("(x);\n");
+        }
+        sb.append("        do Output.printInt(x);\n");
+        sb.append("        return;\n");
+        sb.append("    }\n");
+        for (int k = 0; k < classes; k++) {
+            sb.append('\n');
+            sb.append("    function int callC").append(k).append("(int x) {\n");
+            sb.append("        var C").append(k).append(" o;\n");
+            sb.append("        let o = C").append(k).append(".new(x, ").append(k).append(");\n");
+            for (int j = 0; j < subroutines; j++) {
+                sb.append("        let x = x + ");
+                sb.append(isMethod(j) ? "o.m" : "C" + k + ".f").append(j);
+                sb.append("(x, ").append(j).append(");\n");
+            }
+            sb.append("        do Memory.deAlloc(o);\n");
+            sb.append("        return x;\n");
+            sb.append("    }\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Class Ck: two statics, two fields, a constructor and the configured number of
+     * subroutines. f0 is always a function, so other classes can call it.
+     */
+    public String classSource(int k) {
+        classIndex = k;
+        random = new Random(seed * 0x9E3779B97F4A7C15L + k);
+        StringBuilder sb = new StringBuilder(4096);
+        comment(sb, "");
+        sb.append("class C").append(k).append(" {\n");
+        sb.append("    static int s0, s1;\n");
+        sb.append("    field int f0, f1;\n\n");
+        sb.append("    constructor C").append(k).append(" new(int p0, int p1) {\n");
+        sb.append("        let f0 = p0;\n");
+        sb.append("        let f1 = p1;\n");
+        sb.append("        return this;\n");
+        sb.append("    }\n");
+        for (int j = 0; j < subroutines; j++) {
+            subroutineIndex = j;
+            inMethod = isMethod(j);
+            sb.append('\n');
+            comment(sb, "    ");
+            sb.append(inMethod ? "    method int m" : "    function int f").append(j);
+            sb.append("(int p0, int p1) {\n");
+            sb.append("        var int v0, v1, v2;\n");
+            sb.append("        var Array arr;\n");
+            sb.append("        var String str;\n");
+            sb.append("        let arr = Array.new(8);\n");
+            block(sb, 2, statements, depth);
+            sb.append("        do arr.dispose();\n");
+            sb.append("        return ");
+            expression(sb, exprLength);
+            sb.append(";\n");
+            sb.append("    }\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static boolean isMethod(int j) {
+        return j % 3 == 1;
+    }
+
+    private void block(StringBuilder sb, int indent, int count, int depthLeft) {
+        for (int i = 0; i < count; i++) {
+            statement(sb, indent, depthLeft);
+        }
+    }
+
+    private void statement(StringBuilder sb, int indent, int depthLeft) {
+        String pad = "    ".repeat(indent);
+        if (random.nextDouble() < commentDensity) {
+            comment(sb, pad);
+        }
+        if (random.nextDouble() < stringDensity) {
+            sb.append(pad).append("let str = \"").append(words(1 + random.nextInt(6)))
+                .append("\";\n");
+            sb.append(pad).append("do Output.printString(str);\n");
+            sb.append(pad).append("do str.dispose();\n");
+            return;
+        }
+        int choice = random.nextInt(depthLeft > 0 ? 10 : 6);
+        switch (choice) {
+            case 0:
+            case 1:
+            case 2:
+                sb.append(pad).append("let ").append(assignable()).append(" = ");
+                expression(sb, exprLength);
+                sb.append(";\n");
+                break;
+            case 3:
+                sb.append(pad).append("let arr[");
+                expression(sb, 1);
+                sb.append(" & 7] = ");
+                expression(sb, exprLength);
+                sb.append(";\n");
+                break;
+            case 4:
+                sb.append(pad).append("do Output.printInt(");
+                expression(sb, exprLength);
+                sb.append(");\n");
+                break;
+            case 5:
+                sb.append(pad).append("do ");
+                if (!call(sb)) {
+                    sb.append("Math.abs(");
+                    expression(sb, exprLength);
+                    sb.append(')');
+                }
+                sb.append(";\n");
+                break;
+            case 6:
+            case 7:
+                sb.append(pad).append("if (");
+                expression(sb, Math.max(1, exprLength / 2));
+                sb.append(") {\n");
+                block(sb, indent + 1, 1 + random.nextInt(3), depthLeft - 1);
+                if (random.nextBoolean()) {
+                    sb.append(pad).append("} else {\n");
+                    block(sb, indent + 1, 1 + random.nextInt(3), depthLeft - 1);
+                }
+                sb.append(pad).append("}\n");
+                break;
+            default:
+                String counter = "v" + random.nextInt(3);
+                sb.append(pad).append("let ").append(counter).append(" = ")
+                    .append(random.nextInt(10)).append(";\n");
+                sb.append(pad).append("while (").append(counter).append(" > 0) {\n");
+                block(sb, indent + 1, 1 + random.nextInt(3), depthLeft - 1);
+                sb.append(pad).append("    let ").append(counter).append(" = ")
+                    .append(counter).append(" - 1;\n");
+                sb.append(pad).append("}\n");
+                break;
+        }
+    }
+
+    /**
+     * A chain of terms joined by binary operators.
+     */
+    private void expression(StringBuilder sb, int terms) {
+        term(sb, terms);
+        for (int i = 1; i < terms; i++) {
+            sb.append(' ').append(OPS[random.nextInt(OPS.length)]).append(' ');
+            term(sb, terms);
+        }
+    }
+
+    private void term(StringBuilder sb, int budget) {
+        switch (random.nextInt(budget > 1 ? 9 : 5)) {
+            case 0:
+            case 1:
+                sb.append(random.nextInt(1000));
+                break;
+            case 2:
+            case 3:
+                sb.append(readable());
+                break;
+            case 4:
+                sb.append(random.nextBoolean() ? "true" : "false");
+                break;
+            case 5:
+                sb.append("arr[");
+                expression(sb, 1);
+                sb.append(" & 7]");
+                break;
+            case 6:
+                sb.append(random.nextBoolean() ? '-' : '~');
+                term(sb, budget / 2);
+                break;
+            case 7:
+                if (!call(sb)) {
+                    sb.append(readable());
+                }
+                break;
+            default:
+                sb.append('(');
+                expression(sb, budget / 2);
+                sb.append(')');
+                break;
+        }
+    }
+
+    /**
+     * Appends a call to an earlier subroutine of this class or to f0 of a lower-numbered class,
+     * or nothing and returns false if there is none to call.
+     */
+    private boolean call(StringBuilder sb) {
+        int callee = (subroutineIndex > 0) ? random.nextInt(subroutineIndex) : -1;
+        if (callee >= 0 && isMethod(callee)) {
+            if (!inMethod) {
+                return false;
+            }
+            sb.append('m').append(callee);
+        } else if (callee >= 0) {
+            sb.append('C').append(classIndex).append(".f").append(callee);
+        } else if (classIndex > 0) {
+            sb.append('C').append(random.nextInt(classIndex)).append(".f0");
+        } else {
+            return false;
+        }
+        sb.append('(');
+        expression(sb, 1);
+        sb.append(", ");
+        expression(sb, 1);
+        sb.append(')');
+        return true;
+    }
+
+    private String readable() {
+        int n = random.nextInt(inMethod ? 9 : 7);
+        switch (n) {
+            case 0:
+            case 1:
+                return "p" + n;
+            case 2:
+            case 3:
+            case 4:
+                return "v" + (n - 2);
+            case 5:
+            case 6:
+                return "s" + (n - 5);
+            default:
+                return "f" + (n - 7);
+        }
+    }
+
+    private String assignable() {
+        String name = readable();
+        // arguments stay untouched, like in most hand-written code
+        return name.startsWith("p") ? "v" + name.charAt(1) : name;
+    }
+
+    private void comment(StringBuilder sb, String pad) {
+        if (random.nextDouble() >= commentDensity) {
+            return;
+        }
+        if (random.nextBoolean()) {
+            sb.append(pad).append("// ").append(words(3 + random.nextInt(8))).append('\n');
+        } else {
+            sb.append(pad).append("/**\n");
+            for (int i = random.nextInt(3); i >= 0; i--) {
+                sb.append(pad).append(" * ").append(words(5 + random.nextInt(8))).append('\n');
+            }
+            sb.append(pad).append(" */\n");
+        }
+    }
+
+    private String words(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+}
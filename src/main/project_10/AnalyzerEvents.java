@@ -0,0 +1,59 @@
+package main.project_10;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder events for the analyzer phases, recorded with e.g.
+ * -XX:StartFlightRecording=filename=build.jfr. Callers only fill in the fields if
+ * shouldCommit(), so with recording off an event costs no more than its creation.
+ */
+public final class AnalyzerEvents {
+
+    private AnalyzerEvents() {
+    }
+
+    @Name("jack.analyzer.File")
+    @Label("Analyze File")
+    @Category({"Jack", "Analyzer"})
+    @Description("Writing the parse tree of one .jack file as XML, or restoring it from the cache")
+    static final class FileAnalyzed extends Event {
+
+        @Label("Source")
+        String source;
+
+        @Label("Cached")
+        boolean cached;
+    }
+
+    @Name("jack.analyzer.Class")
+    @Label("Analyze Class")
+    @Category({"Jack", "Analyzer"})
+    static final class ClassAnalyzed extends Event {
+
+        @Label("Class")
+        String className;
+
+        @Label("Tokens")
+        long tokens;
+    }
+
+    @Name("jack.analyzer.Subroutine")
+    @Label("Analyze Subroutine")
+    @Category({"Jack", "Analyzer"})
+    static final class SubroutineAnalyzed extends Event {
+
+        @Label("Class")
+        String className;
+
+        @Label("Subroutine")
+        String subroutineName;
+
+        @Label("Tokens")
+        long tokens;
+    }
+
+}
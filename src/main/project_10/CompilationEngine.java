@@ -6,8 +6,6 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashSet;
-import java.util.Set;
 
 public class CompilationEngine implements Closeable {
 
@@ -15,11 +13,14 @@ public class CompilationEngine implements Closeable {
     private final BufferedWriter out;
     private int indent = 0;
 
-    private static final Set<Character> OPS = new HashSet<>();
+    private String className = "";
+
+    // Binary operators, indexed by ASCII code
+    private static final boolean[] OPS = new boolean[128];
 
     static {
         for (char c : new char[]{'+', '-', '*', '/', '&', '|', '<', '>', '='}) {
-            OPS.add(c);
+            OPS[c] = true;
         }
     }
 
@@ -33,33 +34,44 @@ public class CompilationEngine implements Closeable {
     // -------- public API (project 10) --------
 
     public void compileClass() throws IOException {
+        AnalyzerEvents.ClassAnalyzed event = new AnalyzerEvents.ClassAnalyzed();
+        event.begin();
+        int firstToken = tokenizer.tokenIndex();
+
         openTag("class");
 
-        eatKeyword("class");
-        eatIdentifier();      // className
+        eatKeyword(Keyword.CLASS);
+        className = eatIdentifier();
         eatSymbol('{');
 
-        while (isKeyword("static") || isKeyword("field")) {
+        while (isKeyword(Keyword.STATIC) || isKeyword(Keyword.FIELD)) {
             compileClassVarDec();
         }
 
-        while (isKeyword("constructor") || isKeyword("function") || isKeyword("method")) {
+        while (isKeyword(Keyword.CONSTRUCTOR) || isKeyword(Keyword.FUNCTION)
+            || isKeyword(Keyword.METHOD)) {
             compileSubroutine();
         }
 
         eatSymbol('}');
         closeTag("class");
         out.flush();
+
+        if (event.shouldCommit()) {
+            event.className = className;
+            event.tokens = tokenizer.tokenIndex() - firstToken;
+            event.commit();
+        }
     }
 
     public void compileClassVarDec() throws IOException {
         openTag("classVarDec");
 
         // 'static' | 'field'
-        if (isKeyword("static")) {
-            eatKeyword("static");
+        if (isKeyword(Keyword.STATIC)) {
+            eatKeyword(Keyword.STATIC);
         } else {
-            eatKeyword("field");
+            eatKeyword(Keyword.FIELD);
         }
 
         compileType();     // type
@@ -75,25 +87,29 @@ public class CompilationEngine implements Closeable {
     }
 
     public void compileSubroutine() throws IOException {
+        AnalyzerEvents.SubroutineAnalyzed event = new AnalyzerEvents.SubroutineAnalyzed();
+        event.begin();
+        int firstToken = tokenizer.tokenIndex();
+
         openTag("subroutineDec");
 
         // ('constructor'|'function'|'method')
-        if (isKeyword("constructor")) {
-            eatKeyword("constructor");
-        } else if (isKeyword("function")) {
-            eatKeyword("function");
+        if (isKeyword(Keyword.CONSTRUCTOR)) {
+            eatKeyword(Keyword.CONSTRUCTOR);
+        } else if (isKeyword(Keyword.FUNCTION)) {
+            eatKeyword(Keyword.FUNCTION);
         } else {
-            eatKeyword("method");
+            eatKeyword(Keyword.METHOD);
         }
 
         // ('void'|type)
-        if (isKeyword("void")) {
-            eatKeyword("void");
+        if (isKeyword(Keyword.VOID)) {
+            eatKeyword(Keyword.VOID);
         } else {
             compileType();
         }
 
-        eatIdentifier(); // subroutineName
+        String subroutineName = eatIdentifier();
         eatSymbol('(');
         compileParameterList();
         eatSymbol(')');
@@ -101,6 +117,13 @@ public class CompilationEngine implements Closeable {
         compileSubroutineBody();
 
         closeTag("subroutineDec");
+
+        if (event.shouldCommit()) {
+            event.className = className;
+            event.subroutineName = subroutineName;
+            event.tokens = tokenizer.tokenIndex() - firstToken;
+            event.commit();
+        }
     }
 
     public void compileParameterList() throws IOException {
@@ -125,7 +148,7 @@ public class CompilationEngine implements Closeable {
 
         eatSymbol('{');
 
-        while (isKeyword("var")) {
+        while (isKeyword(Keyword.VAR)) {
             compileVarDec();
         }
 
@@ -138,7 +161,7 @@ public class CompilationEngine implements Closeable {
     public void compileVarDec() throws IOException {
         openTag("varDec");
 
-        eatKeyword("var");
+        eatKeyword(Keyword.VAR);
         compileType();
         eatIdentifier();
 
@@ -154,20 +177,26 @@ public class CompilationEngine implements Closeable {
     public void compileStatements() throws IOException {
         openTag("statements");
 
+        statements:
         while (tokenizer.tokenType() == TokenType.KEYWORD) {
-            String kw = tokenizer.keyword();
-            if ("let".equals(kw)) {
-                compileLet();
-            } else if ("if".equals(kw)) {
-                compileIf();
-            } else if ("while".equals(kw)) {
-                compileWhile();
-            } else if ("do".equals(kw)) {
-                compileDo();
-            } else if ("return".equals(kw)) {
-                compileReturn();
-            } else {
-                break;
+            switch (tokenizer.keyword()) {
+                case LET:
+                    compileLet();
+                    break;
+                case IF:
+                    compileIf();
+                    break;
+                case WHILE:
+                    compileWhile();
+                    break;
+                case DO:
+                    compileDo();
+                    break;
+                case RETURN:
+                    compileReturn();
+                    break;
+                default:
+                    break statements;
             }
         }
 
@@ -177,7 +206,7 @@ public class CompilationEngine implements Closeable {
     public void compileLet() throws IOException {
         openTag("letStatement");
 
-        eatKeyword("let");
+        eatKeyword(Keyword.LET);
         eatIdentifier(); // varName
 
         // ('[' expression ']')?
@@ -197,7 +226,7 @@ public class CompilationEngine implements Closeable {
     public void compileIf() throws IOException {
         openTag("ifStatement");
 
-        eatKeyword("if");
+        eatKeyword(Keyword.IF);
         eatSymbol('(');
         compileExpression();
         eatSymbol(')');
@@ -206,8 +235,8 @@ public class CompilationEngine implements Closeable {
         eatSymbol('}');
 
         // ('else' '{' statements '}')?
-        if (isKeyword("else")) {
-            eatKeyword("else");
+        if (isKeyword(Keyword.ELSE)) {
+            eatKeyword(Keyword.ELSE);
             eatSymbol('{');
             compileStatements();
             eatSymbol('}');
@@ -219,7 +248,7 @@ public class CompilationEngine implements Closeable {
     public void compileWhile() throws IOException {
         openTag("whileStatement");
 
-        eatKeyword("while");
+        eatKeyword(Keyword.WHILE);
         eatSymbol('(');
         compileExpression();
         eatSymbol(')');
@@ -233,7 +262,7 @@ public class CompilationEngine implements Closeable {
     public void compileDo() throws IOException {
         openTag("doStatement");
 
-        eatKeyword("do");
+        eatKeyword(Keyword.DO);
         compileSubroutineCall();  // no <subroutineCall> tag in output
         eatSymbol(';');
 
@@ -243,7 +272,7 @@ public class CompilationEngine implements Closeable {
     public void compileReturn() throws IOException {
         openTag("returnStatement");
 
-        eatKeyword("return");
+        eatKeyword(Keyword.RETURN);
 
         // expression?
         if (!isSymbol(';')) {
@@ -259,7 +288,7 @@ public class CompilationEngine implements Closeable {
 
         compileTerm();
 
-        while (tokenizer.tokenType() == TokenType.SYMBOL && OPS.contains(tokenizer.symbol())) {
+        while (tokenizer.tokenType() == TokenType.SYMBOL && isOp(tokenizer.symbol())) {
             writeCurrentTokenAndAdvance(); // op
             compileTerm();
         }
@@ -350,10 +379,14 @@ public class CompilationEngine implements Closeable {
     private void compileType() throws IOException {
         // type: 'int'|'char'|'boolean'|className(identifier)
         if (tokenizer.tokenType() == TokenType.KEYWORD) {
-            String kw = tokenizer.keyword();
-            if ("int".equals(kw) || "char".equals(kw) || "boolean".equals(kw)) {
-                writeCurrentTokenAndAdvance();
-                return;
+            switch (tokenizer.keyword()) {
+                case INT:
+                case CHAR:
+                case BOOLEAN:
+                    writeCurrentTokenAndAdvance();
+                    return;
+                default:
+                    break;
             }
         }
         // className (identifier)
@@ -385,22 +418,34 @@ public class CompilationEngine implements Closeable {
         eatSymbol(')');
     }
 
-    private boolean isKeyword(String kw) {
-        return tokenizer.tokenType() == TokenType.KEYWORD && kw.equals(tokenizer.keyword());
+    private boolean isKeyword(Keyword kw) {
+        return tokenizer.tokenType() == TokenType.KEYWORD && tokenizer.keyword() == kw;
+    }
+
+    private static boolean isOp(char c) {
+        return c < 128 && OPS[c];
     }
 
     private boolean isSymbol(char c) {
         return tokenizer.tokenType() == TokenType.SYMBOL && tokenizer.symbol() == c;
     }
 
-    private boolean isKeywordConstant(String kw) {
-        return "true".equals(kw) || "false".equals(kw) || "null".equals(kw) || "this".equals(kw);
+    private boolean isKeywordConstant(Keyword kw) {
+        switch (kw) {
+            case TRUE:
+            case FALSE:
+            case NULL:
+            case THIS:
+                return true;
+            default:
+                return false;
+        }
     }
 
-    private void eatKeyword(String expected) throws IOException {
+    private void eatKeyword(Keyword expected) throws IOException {
         if (!isKeyword(expected)) {
             throw new IllegalStateException(
-                "Expected keyword '" + expected + "' but got " + tokenizer.tokenType() + " "
+                "Expected keyword '" + expected.text() + "' but got " + tokenizer.tokenType() + " "
                     + tokenizer.token());
         }
         writeCurrentTokenAndAdvance();
@@ -415,12 +460,14 @@ public class CompilationEngine implements Closeable {
         writeCurrentTokenAndAdvance();
     }
 
-    private void eatIdentifier() throws IOException {
+    private String eatIdentifier() throws IOException {
         if (tokenizer.tokenType() != TokenType.IDENTIFIER) {
             throw new IllegalStateException(
                 "Expected identifier but got " + tokenizer.tokenType() + " " + tokenizer.token());
         }
+        String name = tokenizer.identifier();
         writeCurrentTokenAndAdvance();
+        return name;
     }
 
     private void writeCurrentTokenAndAdvance() throws IOException {
@@ -430,7 +477,7 @@ public class CompilationEngine implements Closeable {
         String val;
         switch (type) {
             case KEYWORD:
-                val = tokenizer.keyword();
+                val = tokenizer.keyword().text();
                 break;
             case SYMBOL:
                 val = String.valueOf(tokenizer.symbol());
@@ -0,0 +1,114 @@
+package main.project_10;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content-addressed store of generated files. Entries are keyed by a SHA-256 hash of a
+ * fingerprint (compiler version plus any options that change the output) and the source bytes,
+ * so one cache directory can be shared by several checkouts and concurrent runs. Entries are
+ * written to a temporary file and renamed into place, and restored by copying, never linking,
+ * since the generated file is overwritten in place on the next miss.
+ */
+public class CompileCache {
+
+    private final Path dir;
+    private final String fingerprint;
+    private final String extension;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param extension suffix of the cached files, e.g. ".vm"
+     */
+    public CompileCache(Path dir, String fingerprint, String extension) {
+        this.dir = dir;
+        this.fingerprint = fingerprint;
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the cache key for the source file.
+     */
+    public String key(Path source) throws IOException {
+        MessageDigest md = sha256();
+        md.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Copies the entry for key to out and counts a hit, or counts a miss and returns false if
+     * there is no such entry.
+     */
+    public boolean restore(String key, Path out) throws IOException {
+        try {
+            Files.copy(entryFor(key), out, StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stores a copy of the freshly generated file out as the entry for key.
+     */
+    public void store(String key, Path out) throws IOException {
+        Path entry = entryFor(key);
+        Files.createDirectories(entry.getParent());
+        Path tmp = Files.createTempFile(entry.getParent(), key, ".tmp");
+        try {
+            Files.copy(out, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public int hits() {
+        return hits.get();
+    }
+
+    public int misses() {
+        return misses.get();
+    }
+
+    private Path entryFor(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + extension);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+}
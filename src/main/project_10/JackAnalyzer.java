@@ -5,31 +5,60 @@ import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class JackAnalyzer {
 
+    // Bump whenever the generated XML changes, so cached outputs of older versions are ignored
+    private static final String VERSION = "1";
+    private static final String FINGERPRINT = "JackAnalyzer " + VERSION;
+
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("Usage: JackAnalyzer <source>");
+        int jobs = 1;
+        Path cacheDir = null;
+        Path source = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("--jobs".equals(args[i]) && i + 1 < args.length) {
+                jobs = parseJobs(args[++i]);
+            } else if ("--cache".equals(args[i]) && i + 1 < args.length) {
+                cacheDir = Paths.get(args[++i]);
+            } else if (source == null && !args[i].startsWith("--")) {
+                source = Paths.get(args[i]);
+            } else {
+                source = null;
+                break;
+            }
+        }
+
+        if (source == null || jobs < 1) {
+            System.err.println("Usage: JackAnalyzer [--jobs N] [--cache DIR] <source>");
             System.err.println(
                 "  where <source> is either Xxx.jack or a directory containing .jack files");
+            System.err.println("  --jobs N analyzes up to N files of a directory in parallel");
+            System.err.println("  --cache DIR reuses outputs of unchanged sources stored in DIR");
             System.exit(1);
         }
 
-        Path source = Paths.get(args[0]);
+        CompileCache cache = (cacheDir == null) ? null
+            : new CompileCache(cacheDir, FINGERPRINT, ".xml");
 
         try {
             if (Files.isDirectory(source)) {
                 List<Path> jackFiles = listJackFiles(source);
-                for (Path jackFile : jackFiles) {
-                    compileOne(jackFile);
-                }
+                compileAll(jackFiles, jobs, cache);
             } else {
                 if (!source.toString().toLowerCase().endsWith(".jack")) {
                     throw new IllegalArgumentException(
                         "Input file must have .jack extension: " + source);
                 }
-                compileOne(source);
+                System.out.println("Wrote: " + compileOne(source, cache));
+            }
+            if (cache != null) {
+                System.out.println(
+                    "Cache: " + cache.hits() + " hits, " + cache.misses() + " misses");
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -37,15 +66,80 @@ public class JackAnalyzer {
         }
     }
 
-    private static void compileOne(Path jackFile) throws IOException {
+    /**
+     * Analyzes the files on up to jobs threads. Each file is independent, so they can run in any
+     * order; results are still reported in list order, and the first failure in that order is
+     * rethrown, just as when analyzing them one after another.
+     */
+    private static void compileAll(List<Path> jackFiles, int jobs, CompileCache cache)
+        throws Exception {
+        if (jobs == 1) {
+            for (Path jackFile : jackFiles) {
+                System.out.println("Wrote: " + compileOne(jackFile, cache));
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try {
+            List<Future<Path>> results = new ArrayList<>();
+            for (Path jackFile : jackFiles) {
+                results.add(pool.submit(() -> compileOne(jackFile, cache)));
+            }
+            for (Future<Path> result : results) {
+                System.out.println("Wrote: " + result.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (Exception) cause;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static int parseJobs(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Path compileOne(Path jackFile, CompileCache cache) throws IOException {
+        AnalyzerEvents.FileAnalyzed event = new AnalyzerEvents.FileAnalyzed();
+        event.begin();
         Path outXml = outputXmlPathFor(jackFile);
 
+        String key = null;
+        if (cache != null) {
+            key = cache.key(jackFile);
+            if (cache.restore(key, outXml)) {
+                commit(event, jackFile, true);
+                return outXml;
+            }
+        }
+
         JackTokenizer tokenizer = new JackTokenizer(jackFile);
         try (CompilationEngine engine = new CompilationEngine(tokenizer, outXml)) {
             engine.compileClass();
         }
 
-        System.out.println("Wrote: " + outXml);
+        if (cache != null) {
+            cache.store(key, outXml);
+        }
+        commit(event, jackFile, false);
+        return outXml;
+    }
+
+    private static void commit(AnalyzerEvents.FileAnalyzed event, Path jackFile, boolean cached) {
+        if (event.shouldCommit()) {
+            event.source = jackFile.toString();
+            event.cached = cached;
+            event.commit();
+        }
     }
 
     private static Path outputXmlPathFor(Path jackFile) {
@@ -4,38 +4,29 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
 
 public class JackTokenizer {
 
-    private static final Set<String> KEYWORDS;
-
-    static {
-        Set<String> kw = new HashSet<>(Arrays.asList(
-            "class", "constructor", "function", "method", "field", "static",
-            "var", "int", "char", "boolean", "void", "true", "false", "null", "this",
-            "let", "do", "if", "else", "while", "return"
-        ));
-        KEYWORDS = Collections.unmodifiableSet(kw);
-    }
-
-    // Jack symbol set (single-character tokens)
-    private static final String SYMBOLS = "{}()[].,;+-*/&|<>=~";
-
     private final String input;
     private int pos = 0;
 
     private String currentToken = null;
     private TokenType currentType = null;
+    private Keyword currentKeyword = null;
+    private int index = -1;
 
     public JackTokenizer(Path jackFile) throws IOException {
         byte[] bytes = Files.readAllBytes(jackFile);
         this.input = new String(bytes, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Index of the current token in the source, counting from 0; -1 before the first advance().
+     */
+    public int tokenIndex() {
+        return index;
+    }
+
     /**
      * Are there more tokens in the input?
      */
@@ -54,6 +45,7 @@ public class JackTokenizer {
             currentType = null;
             return;
         }
+        index++;
 
         char c = input.charAt(pos);
 
@@ -81,7 +73,7 @@ public class JackTokenizer {
         }
 
         // Symbol
-        if (isSymbolChar(c)) {
+        if (CharClass.isSymbol(c)) {
             currentToken = String.valueOf(c);
             currentType = TokenType.SYMBOL;
             pos++;
@@ -89,9 +81,9 @@ public class JackTokenizer {
         }
 
         // Integer constant
-        if (Character.isDigit(c)) {
+        if (CharClass.isDigit(c)) {
             int start = pos;
-            while (pos < input.length() && Character.isDigit(input.charAt(pos))) {
+            while (pos < input.length() && CharClass.isDigit(input.charAt(pos))) {
                 pos++;
             }
             currentToken = input.substring(start, pos);
@@ -100,13 +92,14 @@ public class JackTokenizer {
         }
 
         // Identifier or keyword
-        if (isIdentifierStart(c)) {
+        if (CharClass.isIdentifierStart(c)) {
             int start = pos;
-            while (pos < input.length() && isIdentifierPart(input.charAt(pos))) {
+            while (pos < input.length() && CharClass.isIdentifierPart(input.charAt(pos))) {
                 pos++;
             }
             currentToken = input.substring(start, pos);
-            if (KEYWORDS.contains(currentToken)) {
+            currentKeyword = keywordOf(currentToken);
+            if (currentKeyword != null) {
                 currentType = TokenType.KEYWORD;
             } else {
                 currentType = TokenType.IDENTIFIER;
@@ -122,9 +115,9 @@ public class JackTokenizer {
         return currentType;
     }
 
-    public String keyword() {
+    public Keyword keyword() {
         ensureType(TokenType.KEYWORD);
-        return currentToken;
+        return currentKeyword;
     }
 
     public char symbol() {
@@ -171,16 +164,70 @@ public class JackTokenizer {
         }
     }
 
-    private boolean isSymbolChar(char c) {
-        return SYMBOLS.indexOf(c) >= 0;
-    }
-
-    private boolean isIdentifierStart(char c) {
-        return Character.isLetter(c) || c == '_';
-    }
-
-    private boolean isIdentifierPart(char c) {
-        return Character.isLetterOrDigit(c) || c == '_';
+    /**
+     * Keyword spelled by the word, or null. The first character and the length narrow it down to
+     * a single candidate, which is then compared in full.
+     */
+    private static Keyword keywordOf(String word) {
+        int len = word.length();
+        Keyword candidate;
+        switch (word.charAt(0)) {
+            case 'b':
+                candidate = Keyword.BOOLEAN;
+                break;
+            case 'c':
+                candidate = (len == 5) ? Keyword.CLASS
+                    : (len == 4) ? Keyword.CHAR : Keyword.CONSTRUCTOR;
+                break;
+            case 'd':
+                candidate = Keyword.DO;
+                break;
+            case 'e':
+                candidate = Keyword.ELSE;
+                break;
+            case 'f':
+                if (len == 8) {
+                    candidate = Keyword.FUNCTION;
+                } else if (len == 5) {
+                    candidate = (word.charAt(1) == 'i') ? Keyword.FIELD : Keyword.FALSE;
+                } else {
+                    return null;
+                }
+                break;
+            case 'i':
+                candidate = (len == 3) ? Keyword.INT : Keyword.IF;
+                break;
+            case 'l':
+                candidate = Keyword.LET;
+                break;
+            case 'm':
+                candidate = Keyword.METHOD;
+                break;
+            case 'n':
+                candidate = Keyword.NULL;
+                break;
+            case 'r':
+                candidate = Keyword.RETURN;
+                break;
+            case 's':
+                candidate = Keyword.STATIC;
+                break;
+            case 't':
+                if (len != 4) {
+                    return null;
+                }
+                candidate = (word.charAt(1) == 'r') ? Keyword.TRUE : Keyword.THIS;
+                break;
+            case 'v':
+                candidate = (len == 3) ? Keyword.VAR : Keyword.VOID;
+                break;
+            case 'w':
+                candidate = Keyword.WHILE;
+                break;
+            default:
+                return null;
+        }
+        return candidate.text().equals(word) ? candidate : null;
     }
 
     /**
@@ -192,7 +239,7 @@ public class JackTokenizer {
             char c = input.charAt(pos);
 
             // whitespace
-            if (Character.isWhitespace(c)) {
+            if (CharClass.isWhitespace(c)) {
                 pos++;
                 continue;
             }
@@ -0,0 +1,36 @@
+package main.project_10;
+
+public enum Keyword {
+    CLASS("class"),
+    CONSTRUCTOR("constructor"),
+    FUNCTION("function"),
+    METHOD("method"),
+    FIELD("field"),
+    STATIC("static"),
+    VAR("var"),
+    INT("int"),
+    CHAR("char"),
+    BOOLEAN("boolean"),
+    VOID("void"),
+    TRUE("true"),
+    FALSE("false"),
+    NULL("null"),
+    THIS("this"),
+    LET("let"),
+    DO("do"),
+    IF("if"),
+    ELSE("else"),
+    WHILE("while"),
+    RETURN("return");
+
+    private final String text;
+
+    Keyword(String text) {
+        this.text = text;
+    }
+
+    public String text() {
+        return text;
+    }
+
+}
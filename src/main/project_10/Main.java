@@ -7,8 +7,8 @@ public class Main {
         // args[0] = "projects/10/Square"
         // args[0] = "projects/10/Square/Main.jack"
 
-        if (args.length != 1) {
-            System.err.println("Usage: java Main <source>");
+        if (args.length == 0) {
+            System.err.println("Usage: java Main [--jobs N] [--cache DIR] <source>");
             System.err.println("  <source> = .jack file OR directory containing .jack files");
             System.exit(1);
         }
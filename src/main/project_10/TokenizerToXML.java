@@ -44,7 +44,7 @@ public class TokenizerToXML {
         String val;
         switch (type) {
             case KEYWORD:
-                val = t.keyword();
+                val = t.keyword().text();
                 break;
             case SYMBOL:
                 val = String.valueOf(t.symbol());
@@ -0,0 +1,205 @@
+package main.project_11;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToLongFunction;
+
+/**
+ * Per-file compile metrics of one JackCompiler run, aggregated into a JSON report: totals, the
+ * p50/p95/max of every phase and per-file count, and the slowest files with their breakdown.
+ */
+public class BuildReport {
+
+    private static final int SLOWEST = 10;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * What compiling one file took. Phases are wall time in nanoseconds: reading the source,
+     * tokenizing it, parsing and generating code, and writing the output. Streamed sources are
+     * tokenized while they are parsed, so their tokenize time is part of codegen. A cache hit
+     * only has read (hashing the source) and write (restoring the output) time.
+     */
+    public static final class FileStats {
+
+        final Path source;
+        Path output;
+        boolean cached;
+        long readNanos;
+        long tokenizeNanos;
+        long codegenNanos;
+        long writeNanos;
+        long tokens;
+        long instructions;
+        long bytesWritten;
+        long allocatedBytes;
+        List<String> warnings = List.of();
+
+        FileStats(Path source) {
+            this.source = source;
+        }
+
+        public Path output() {
+            return output;
+        }
+
+        public List<String> warnings() {
+            return warnings;
+        }
+
+        long totalNanos() {
+            return readNanos + tokenizeNanos + codegenNanos + writeNanos;
+        }
+    }
+
+    private final List<FileStats> files = new ArrayList<>();
+
+    public synchronized void add(FileStats stats) {
+        files.add(stats);
+    }
+
+    /**
+     * Bytes allocated so far by the calling thread, or 0 if the JVM cannot tell.
+     */
+    static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    public synchronized void write(Path reportFile, long wallNanos, int jobs) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"files\": ").append(files.size()).append(",\n");
+        sb.append("  \"cached\": ").append(files.stream().filter(f -> f.cached).count())
+            .append(",\n");
+        sb.append("  \"jobs\": ").append(jobs).append(",\n");
+        sb.append("  \"wallMillis\": ").append(millis(wallNanos)).append(",\n");
+
+        sb.append("  \"totals\": {");
+        sb.append("\"tokens\": ").append(sum(f -> f.tokens));
+        sb.append(", \"instructions\": ").append(sum(f -> f.instructions));
+        sb.append(", \"bytesWritten\": ").append(sum(f -> f.bytesWritten));
+        sb.append(", \"allocatedBytes\": ").append(sum(f -> f.allocatedBytes));
+        sb.append("},\n");
+
+        sb.append("  \"phaseMillis\": {\n");
+        timeStats(sb, "read", f -> f.readNanos, ",");
+        timeStats(sb, "tokenize", f -> f.tokenizeNanos, ",");
+        timeStats(sb, "codegen", f -> f.codegenNanos, ",");
+        timeStats(sb, "write", f -> f.writeNanos, ",");
+        timeStats(sb, "total", FileStats::totalNanos, "");
+        sb.append("  },\n");
+
+        sb.append("  \"perFile\": {\n");
+        countStats(sb, "tokens", f -> f.tokens, ",");
+        countStats(sb, "instructions", f -> f.instructions, ",");
+        countStats(sb, "bytesWritten", f -> f.bytesWritten, ",");
+        countStats(sb, "allocatedBytes", f -> f.allocatedBytes, "");
+        sb.append("  },\n");
+
+        List<FileStats> slowest = new ArrayList<>(files);
+        slowest.sort(Comparator.comparingLong(FileStats::totalNanos).reversed());
+        sb.append("  \"slowest\": [");
+        for (int i = 0; i < Math.min(SLOWEST, slowest.size()); i++) {
+            FileStats f = slowest.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\"source\": ").append(quote(f.source.toString()));
+            sb.append(", \"cached\": ").append(f.cached);
+            sb.append(", \"totalMillis\": ").append(millis(f.totalNanos()));
+            sb.append(", \"readMillis\": ").append(millis(f.readNanos));
+            sb.append(", \"tokenizeMillis\": ").append(millis(f.tokenizeNanos));
+            sb.append(", \"codegenMillis\": ").append(millis(f.codegenNanos));
+            sb.append(", \"writeMillis\": ").append(millis(f.writeNanos));
+            sb.append(", \"tokens\": ").append(f.tokens);
+            sb.append(", \"instructions\": ").append(f.instructions);
+            sb.append(", \"bytesWritten\": ").append(f.bytesWritten);
+            sb.append(", \"allocatedBytes\": ").append(f.allocatedBytes);
+            sb.append('}');
+        }
+        sb.append(slowest.isEmpty() ? "]\n" : "\n  ]\n");
+        sb.append("}\n");
+
+        Files.write(reportFile, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long sum(ToLongFunction<FileStats> metric) {
+        long sum = 0;
+        for (FileStats f : files) {
+            sum += metric.applyAsLong(f);
+        }
+        return sum;
+    }
+
+    private void timeStats(StringBuilder sb, String name, ToLongFunction<FileStats> metric,
+        String separator) {
+        long[] v = sorted(metric);
+        sb.append("    \"").append(name).append("\": {");
+        sb.append("\"p50\": ").append(millis(percentile(v, 50)));
+        sb.append(", \"p95\": ").append(millis(percentile(v, 95)));
+        sb.append(", \"max\": ").append(millis(percentile(v, 100)));
+        sb.append(", \"total\": ").append(millis(sum(metric)));
+        sb.append('}').append(separator).append('\n');
+    }
+
+    private void countStats(StringBuilder sb, String name, ToLongFunction<FileStats> metric,
+        String separator) {
+        long[] v = sorted(metric);
+        sb.append("    \"").append(name).append("\": {");
+        sb.append("\"p50\": ").append(percentile(v, 50));
+        sb.append(", \"p95\": ").append(percentile(v, 95));
+        sb.append(", \"max\": ").append(percentile(v, 100));
+        sb.append('}').append(separator).append('\n');
+    }
+
+    private long[] sorted(ToLongFunction<FileStats> metric) {
+        long[] v = new long[files.size()];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = metric.applyAsLong(files.get(i));
+        }
+        Arrays.sort(v);
+        return v;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values; 0 when there are none.
+     */
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+}
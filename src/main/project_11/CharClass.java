@@ -0,0 +1,66 @@
+package main.project_11;
+
+/**
+ * Character classes used by the tokenizer. Characters below 256 are classified with one lookup
+ * in a precomputed bitmask table; anything above falls back to the Unicode-aware Character
+ * methods, so non-ASCII letters and whitespace are still recognized.
+ */
+public final class CharClass {
+
+    private static final int WHITESPACE = 1;
+    private static final int SYMBOL = 1 << 1;
+    private static final int DIGIT = 1 << 2;
+    private static final int IDENTIFIER_START = 1 << 3;
+    private static final int IDENTIFIER_PART = 1 << 4;
+
+    // Jack symbol set (single-character tokens)
+    private static final String SYMBOLS = "{}()[].,;+-*/&|<>=~";
+
+    private static final byte[] CLASSES = new byte[256];
+
+    static {
+        for (int c = 0; c < CLASSES.length; c++) {
+            int bits = 0;
+            if (Character.isWhitespace(c)) {
+                bits |= WHITESPACE;
+            }
+            if (SYMBOLS.indexOf(c) >= 0) {
+                bits |= SYMBOL;
+            }
+            if (Character.isDigit(c)) {
+                bits |= DIGIT;
+            }
+            if (Character.isLetter(c) || c == '_') {
+                bits |= IDENTIFIER_START;
+            }
+            if (Character.isLetterOrDigit(c) || c == '_') {
+                bits |= IDENTIFIER_PART;
+            }
+            CLASSES[c] = (byte) bits;
+        }
+    }
+
+    private CharClass() {
+    }
+
+    public static boolean isWhitespace(int c) {
+        return (c < 256) ? (CLASSES[c] & WHITESPACE) != 0 : Character.isWhitespace(c);
+    }
+
+    public static boolean isSymbol(int c) {
+        return c < 256 && (CLASSES[c] & SYMBOL) != 0;
+    }
+
+    public static boolean isDigit(int c) {
+        return (c < 256) ? (CLASSES[c] & DIGIT) != 0 : Character.isDigit(c);
+    }
+
+    public static boolean isIdentifierStart(int c) {
+        return (c < 256) ? (CLASSES[c] & IDENTIFIER_START) != 0 : Character.isLetter(c);
+    }
+
+    public static boolean isIdentifierPart(int c) {
+        return (c < 256) ? (CLASSES[c] & IDENTIFIER_PART) != 0 : Character.isLetterOrDigit(c);
+    }
+
+}
@@ -0,0 +1,351 @@
+package main.project_11;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reuses values computed earlier in the same basic block instead of computing them again.
+ * The block is run symbolically: each stack value gets a value number, equal for values that
+ * are sure to be equal (same operation on equal values, or a read of a location nothing has
+ * written since). The first computation of a value that is needed again is followed by
+ * "pop local k; push local k" into a new local, and each later computation is replaced by
+ * "push local k". Calls are barriers for memory, statics and temp, except for the Math
+ * functions in PURE, which are numbered like operations.
+ * <p>
+ * A store of the value its location already holds is dropped together with the computation
+ * of that value, such as a second "pop pointer 1" of the same array address.
+ * <p>
+ * A reuse saves the instructions of the computation but costs the two of the save, so a value
+ * is only kept when it contains a call or when its reuses save more than that.
+ */
+public class CommonSubexpressionPass implements Pass {
+
+    // Functions of the Jack OS whose result only depends on their arguments
+    private static final List<String> PURE = List.of(
+        "Math.multiply", "Math.divide", "Math.min", "Math.max", "Math.abs", "Math.sqrt");
+
+    private static final Set<Opcode> COMMUTATIVE = Set.of(
+        Opcode.ADD, Opcode.AND, Opcode.OR, Opcode.EQ);
+    private static final Set<String> COMMUTATIVE_CALLS = Set.of(
+        "Math.multiply", "Math.min", "Math.max");
+
+    private static final Segment[] SEGMENTS = Segment.values();
+
+    private static final int SAVE_COST = 2;
+    private static final int NO_VALUE = (1 << 28) - 1;
+
+    /**
+     * A value on the symbolic stack, computed by code[start, end). It is clean if that range
+     * computes nothing else, so it can be replaced or removed.
+     */
+    private static final class Value {
+
+        final int number;
+        final int start;
+        final int end;
+        final boolean clean;
+        final boolean hasCall;
+
+        Value(int number, int start, int end, boolean clean, boolean hasCall) {
+            this.number = number;
+            this.start = start;
+            this.end = end;
+            this.clean = clean;
+            this.hasCall = hasCall;
+        }
+    }
+
+    /**
+     * code[start, end) replaced by a push of the saved value, or removed if number is -1.
+     */
+    private static final class Edit {
+
+        final int number;
+        final int start;
+        final int end;
+
+        Edit(int number, int start, int end) {
+            this.number = number;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private int numbers;
+    // End of the first computation of each value of an operation or pure call
+    private final Map<Integer, Value> firsts = new HashMap<>();
+    private final List<Edit> edits = new ArrayList<>();
+
+    // Per block: value held by each location, with this, that, static and temp apart since
+    // calls change them, and value of each operation
+    private final Map<Long, Integer> locations = new HashMap<>();
+    private final Map<Long, Integer> memory = new HashMap<>();
+    private final Map<Long, Integer> operations = new HashMap<>();
+    private final List<Value> stack = new ArrayList<>();
+
+    @Override
+    public void apply(VMCode code) {
+        numbers = 0;
+        firsts.clear();
+        edits.clear();
+
+        FlowGraph graph = new FlowGraph(code);
+        for (int b = 0; b < graph.size(); b++) {
+            locations.clear();
+            memory.clear();
+            operations.clear();
+            stack.clear();
+            for (int i = graph.start(b); i < graph.end(b); i++) {
+                step(code, i);
+            }
+        }
+        if (!edits.isEmpty()) {
+            rewrite(code);
+        }
+    }
+
+    private void step(VMCode code, int i) {
+        long insn = code.get(i);
+        Opcode op = VMCode.opcode(insn);
+        switch (op) {
+            case PUSH:
+                int number = locationsOf(VMCode.segment(insn))
+                    .computeIfAbsent(operand(insn), k -> numbers++);
+                stack.add(new Value(number, i, i + 1, true, false));
+                break;
+            case POP:
+                store(insn, pop(), i);
+                break;
+            case IF_GOTO:
+            case RETURN:
+                pop();
+                break;
+            case CALL:
+                call(code, insn, i);
+                break;
+            case LABEL:
+            case GOTO:
+                break;
+            default:
+                if (op == Opcode.NEG || op == Opcode.NOT) {
+                    Value a = pop();
+                    boolean clean = a.clean && a.end == i;
+                    compute(key(0, op.ordinal(), a.number, NO_VALUE), a.start, i, clean,
+                        a.hasCall);
+                } else {
+                    Value y = pop();
+                    Value x = pop();
+                    boolean clean = x.clean && y.clean && x.end == y.start && y.end == i;
+                    int first = x.number;
+                    int second = y.number;
+                    if (COMMUTATIVE.contains(op) && first > second) {
+                        first = y.number;
+                        second = x.number;
+                    }
+                    compute(key(0, op.ordinal(), first, second), x.start, i, clean,
+                        x.hasCall || y.hasCall);
+                }
+                break;
+        }
+    }
+
+    private void call(VMCode code, long insn, int i) {
+        int nArgs = VMCode.index(insn);
+        String name = code.name(VMCode.nameId(insn));
+        int pure = PURE.indexOf(name);
+        if (pure < 0 || nArgs < 1 || nArgs > 2) {
+            for (int a = 0; a < nArgs; a++) {
+                pop();
+            }
+            // the callee may change any memory, statics and temp, but not pointer 0 and 1:
+            // return restores them, and so does the Inliner when it replaces the call
+            memory.clear();
+            stack.add(new Value(numbers++, i, i + 1, false, true));
+            return;
+        }
+
+        Value y = (nArgs == 2) ? pop() : null;
+        Value x = pop();
+        boolean clean = x.clean && x.end == ((y == null) ? i : y.start)
+            && (y == null || (y.clean && y.end == i));
+        int first = x.number;
+        int second = (y == null) ? NO_VALUE : y.number;
+        if (COMMUTATIVE_CALLS.contains(name) && first > second) {
+            first = y.number;
+            second = x.number;
+        }
+        compute(key(1, pure, first, second), x.start, i, clean, true);
+    }
+
+    /**
+     * Pushes the value of an operation ending at code[i], noting a reuse if it was computed
+     * before.
+     */
+    private void compute(long key, int start, int i, boolean clean, boolean hasCall) {
+        Integer known = operations.get(key);
+        if (known == null) {
+            int number = numbers++;
+            operations.put(key, number);
+            Value value = new Value(number, start, i + 1, clean, hasCall);
+            firsts.put(number, value);
+            stack.add(value);
+            return;
+        }
+        if (clean) {
+            addEdit(new Edit(known, start, i + 1));
+        }
+        stack.add(new Value(known, start, i + 1, clean, hasCall));
+    }
+
+    private void store(long insn, Value value, int i) {
+        long location = operand(insn);
+        Segment segment = VMCode.segment(insn);
+        Map<Long, Integer> map = locationsOf(segment);
+        Integer held = map.get(location);
+        if (held != null && held == value.number) {
+            if (value.clean && value.end == i) {
+                addEdit(new Edit(-1, value.start, i + 1));
+            }
+            return;
+        }
+
+        if (segment == Segment.THIS || segment == Segment.THAT) {
+            // this and that may point into the same memory
+            memory.keySet().removeIf(l -> segmentOf(l) == Segment.THIS
+                || segmentOf(l) == Segment.THAT);
+        } else if (segment == Segment.POINTER) {
+            Segment based = (VMCode.index(insn) == 0) ? Segment.THIS : Segment.THAT;
+            memory.keySet().removeIf(l -> segmentOf(l) == based);
+        }
+        map.put(location, value.number);
+    }
+
+    private Map<Long, Integer> locationsOf(Segment segment) {
+        switch (segment) {
+            case THIS:
+            case THAT:
+            case STATIC:
+            case TEMP:
+                return memory;
+            default:
+                return locations;
+        }
+    }
+
+    /**
+     * Adds an edit, dropping the edits inside its range: that code is replaced as a whole.
+     */
+    private void addEdit(Edit edit) {
+        while (!edits.isEmpty() && edits.get(edits.size() - 1).start >= edit.start) {
+            edits.remove(edits.size() - 1);
+        }
+        edits.add(edit);
+    }
+
+    private Value pop() {
+        if (stack.isEmpty()) {
+            // pushed by an earlier block
+            return new Value(numbers++, -1, -1, false, false);
+        }
+        return stack.remove(stack.size() - 1);
+    }
+
+    private void rewrite(VMCode code) {
+        // keep the values worth a local
+        Map<Integer, Integer> savings = new HashMap<>();
+        for (Edit edit : edits) {
+            if (edit.number >= 0) {
+                savings.merge(edit.number, edit.end - edit.start - 1, Integer::sum);
+            }
+        }
+        long header = code.get(0);
+        int nLocals = VMCode.index(header);
+        Map<Integer, Integer> slots = new HashMap<>();
+        for (Map.Entry<Integer, Integer> e : savings.entrySet()) {
+            int number = e.getKey();
+            if (firsts.get(number).hasCall || e.getValue() > SAVE_COST) {
+                slots.put(number, nLocals + slots.size());
+            }
+        }
+        for (Iterator<Edit> it = edits.iterator(); it.hasNext(); ) {
+            Edit edit = it.next();
+            if (edit.number >= 0 && !slots.containsKey(edit.number)) {
+                it.remove();
+            }
+        }
+        if (edits.isEmpty()) {
+            return;
+        }
+
+        // saves go right after the first computation: at the start of code[end, ...)
+        int[] saveAt = new int[code.size() + 1];
+        Map<Integer, List<Integer>> savesAt = new HashMap<>();
+        for (Map.Entry<Integer, Integer> e : slots.entrySet()) {
+            int end = firsts.get(e.getKey()).end;
+            savesAt.computeIfAbsent(end, k -> new ArrayList<>()).add(e.getValue());
+            saveAt[end]++;
+        }
+
+        VMCode result = code.copy();
+        result.clear();
+        result.add(VMCode.encode(Opcode.FUNCTION, VMCode.nameId(header), nLocals + slots.size()));
+        int next = 0;
+        for (int i = 1; i <= code.size(); ) {
+            if (saveAt[i] > 0) {
+                for (int slot : savesAt.get(i)) {
+                    result.pop(Segment.LOCAL, slot);
+                    result.push(Segment.LOCAL, slot);
+                }
+            }
+            if (i == code.size()) {
+                break;
+            }
+            if (next < edits.size() && edits.get(next).start == i) {
+                Edit edit = edits.get(next++);
+                if (edit.number >= 0) {
+                    result.push(Segment.LOCAL, slots.get(edit.number));
+                }
+                for (int j = edit.start + 1; j < edit.end; j++) {
+                    if (saveAt[j] > 0) {
+                        throw new IllegalStateException("First computation inside a reuse");
+                    }
+                }
+                i = edit.end;
+                continue;
+            }
+            result.add(code.get(i));
+            i++;
+        }
+
+        code.clear();
+        for (int i = 0; i < result.size(); i++) {
+            code.add(result.get(i));
+        }
+    }
+
+    /**
+     * Key of an operation (kind 0) or pure call (kind 1) of value numbers a and b. Scrambled
+     * by an odd factor, which keeps keys distinct, so that the hash of the Long varies in its
+     * low bits.
+     */
+    private static long key(int kind, int what, int a, int b) {
+        return (((long) kind << 62) | ((long) what << 56) | ((long) a << 28) | b)
+            * 0x9e3779b97f4a7c15L;
+    }
+
+    /**
+     * Segment and index of a push/pop, index in the low bits for the sake of hashing.
+     */
+    private static long operand(long insn) {
+        return ((long) VMCode.segment(insn).ordinal() << 32) | VMCode.index(insn);
+    }
+
+    private static Segment segmentOf(long location) {
+        return SEGMENTS[(int) (location >>> 32)];
+    }
+
+}
@@ -1,13 +1,30 @@
 package main.project_11;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class CompilationEngine {
 
     private final JackTokenizer tokenizer;
-    private final VMWriter vm;
+    private final VMWriter vm; // null when subroutines are kept instead
+
+    // Instructions emitted so far, after optimization
+    private int emitted = 0;
+    // Code of every compiled subroutine, when not written to vm
+    private final List<VMCode> subroutines = new ArrayList<>();
+
+    // Code of the current subroutine, written out once it is complete
+    private final VMCode code = new VMCode();
+    private final Optimizer optimizer;
+    private final boolean foldConstants;
+    private final boolean poolStrings;
+    // Test while conditions at the bottom of the loop
+    private final boolean rotateLoops;
+    // Most additions a multiplication by a constant may be inlined as; -1 to never inline
+    private final int maxMultiplyAdds;
 
     // Two scopes:
     private final SymbolTable classTable = new SymbolTable();
@@ -15,22 +32,60 @@ public class CompilationEngine {
 
     private String className = "";
     private String subroutineName = "";
-    private String subroutineType = ""; // "constructor" | "function" | "method"
+    private Keyword subroutineType = null; // CONSTRUCTOR | FUNCTION | METHOD
 
     private int ifCounter = 0;
     private int whileCounter = 0;
+    private int stringCounter = 0;
 
-    private static final Set<Character> OPS = new HashSet<>();
+    // String pool: static slot of each distinct literal of the class, and what the current
+    // subroutine is known to hold a pooled literal (by push instruction), for dispose warnings
+    private final Map<String, Integer> stringPool = new HashMap<>();
+    private final Map<Long, String> pooledIn = new HashMap<>();
+    private String pooledLiteral = null;
+    private int pooledStart = -1;
+    private int pooledEnd = -1;
+    private final List<String> warnings = new ArrayList<>();
+
+    // Binary operators, indexed by ASCII code
+    private static final boolean[] OPS = new boolean[128];
+
+    // What isBoolean knows about a value: 0 or -1, the constant 1, or anything
+    private static final int BOOLEAN = 0;
+    private static final int ONE = 1;
+    private static final int OTHER = 2;
 
     static {
         for (char c : new char[]{'+', '-', '*', '/', '&', '|', '<', '>', '='}) {
-            OPS.add(c);
+            OPS[c] = true;
         }
     }
 
     public CompilationEngine(JackTokenizer tokenizer, VMWriter vm) throws IOException {
+        this(tokenizer, vm, new CompilerOptions());
+    }
+
+    /**
+     * Compiles without writing anything: the code of each subroutine is kept, and returned by
+     * subroutines(), so a whole program can be processed before it is written.
+     */
+    public CompilationEngine(JackTokenizer tokenizer, CompilerOptions options)
+        throws IOException {
+        this(tokenizer, null, options);
+    }
+
+    /**
+     * Compiles with the optimizations the options select.
+     */
+    public CompilationEngine(JackTokenizer tokenizer, VMWriter vm, CompilerOptions options)
+        throws IOException {
         this.tokenizer = tokenizer;
         this.vm = vm;
+        this.optimizer = new Optimizer(options.optLevel);
+        this.foldConstants = options.optLevel >= 1;
+        this.poolStrings = options.poolStrings;
+        this.rotateLoops = options.optLevel >= 1;
+        this.maxMultiplyAdds = (options.optLevel >= 1) ? options.maxMultiplyAdds : -1;
         // Prime tokenizer
         this.tokenizer.advance();
     }
@@ -40,22 +95,35 @@ public class CompilationEngine {
     // ------------------------------------------------------------
 
     public void compileClass() throws IOException {
+        CompilerEvents.ClassCompiled event = new CompilerEvents.ClassCompiled();
+        event.begin();
+        int firstToken = tokenizer.tokenIndex();
+        int firstCommand = emitted;
+
         classTable.reset();
 
-        eatKeyword("class");
+        eatKeyword(Keyword.CLASS);
         className = eatIdentifier();
 
         eatSymbol('{');
 
-        while (isKeyword("static") || isKeyword("field")) {
+        while (isKeyword(Keyword.STATIC) || isKeyword(Keyword.FIELD)) {
             compileClassVarDec();
         }
 
-        while (isKeyword("constructor") || isKeyword("function") || isKeyword("method")) {
+        while (isKeyword(Keyword.CONSTRUCTOR) || isKeyword(Keyword.FUNCTION)
+            || isKeyword(Keyword.METHOD)) {
             compileSubroutine();
         }
 
         eatSymbol('}');
+
+        if (event.shouldCommit()) {
+            event.className = className;
+            event.tokens = tokenizer.tokenIndex() - firstToken;
+            event.instructions = emitted - firstCommand;
+            event.commit();
+        }
     }
 
     // ------------------------------------------------------------
@@ -64,11 +132,11 @@ public class CompilationEngine {
 
     public void compileClassVarDec() throws IOException {
         Kind kind;
-        if (isKeyword("static")) {
-            eatKeyword("static");
+        if (isKeyword(Keyword.STATIC)) {
+            eatKeyword(Keyword.STATIC);
             kind = Kind.STATIC;
         } else {
-            eatKeyword("field");
+            eatKeyword(Keyword.FIELD);
             kind = Kind.FIELD;
         }
 
@@ -90,23 +158,30 @@ public class CompilationEngine {
     // ------------------------------------------------------------
 
     public void compileSubroutine() throws IOException {
+        CompilerEvents.SubroutineCompiled event = new CompilerEvents.SubroutineCompiled();
+        event.begin();
+        int firstToken = tokenizer.tokenIndex();
+        int firstCommand = emitted;
+
         subTable.reset();
         ifCounter = 0;
         whileCounter = 0;
+        stringCounter = 0;
+        pooledIn.clear();
 
-        if (isKeyword("constructor")) {
-            subroutineType = "constructor";
-        } else if (isKeyword("function")) {
-            subroutineType = "function";
+        if (isKeyword(Keyword.CONSTRUCTOR)) {
+            subroutineType = Keyword.CONSTRUCTOR;
+        } else if (isKeyword(Keyword.FUNCTION)) {
+            subroutineType = Keyword.FUNCTION;
         } else {
-            subroutineType = "method";
+            subroutineType = Keyword.METHOD;
         }
 
         eatKeyword(subroutineType);
 
         // return type: void or type
-        if (isKeyword("void")) {
-            eatKeyword("void");
+        if (isKeyword(Keyword.VOID)) {
+            eatKeyword(Keyword.VOID);
         } else {
             parseType();
         }
@@ -114,7 +189,7 @@ public class CompilationEngine {
         subroutineName = eatIdentifier();
 
         // If method: arg0 is this
-        if ("method".equals(subroutineType)) {
+        if (subroutineType == Keyword.METHOD) {
             subTable.define("this", className, Kind.ARG);
         }
 
@@ -123,6 +198,23 @@ public class CompilationEngine {
         eatSymbol(')');
 
         compileSubroutineBody();
+
+        optimizer.optimize(code);
+        emitted += code.size();
+        if (vm != null) {
+            vm.write(code);
+        } else {
+            subroutines.add(code.copy());
+        }
+        code.clear();
+
+        if (event.shouldCommit()) {
+            event.className = className;
+            event.subroutineName = subroutineName;
+            event.tokens = tokenizer.tokenIndex() - firstToken;
+            event.instructions = emitted - firstCommand;
+            event.commit();
+        }
     }
 
     public void compileParameterList() throws IOException {
@@ -145,25 +237,25 @@ public class CompilationEngine {
     public void compileSubroutineBody() throws IOException {
         eatSymbol('{');
 
-        while (isKeyword("var")) {
+        while (isKeyword(Keyword.VAR)) {
             compileVarDec();
         }
 
         int nLocals = subTable.varCount(Kind.VAR);
-        vm.writeFunction(className + "." + subroutineName, nLocals);
+        code.function(className + "." + subroutineName, nLocals);
 
         // method setup: align this
-        if ("method".equals(subroutineType)) {
-            vm.writePush(Segment.ARGUMENT, 0);
-            vm.writePop(Segment.POINTER, 0);
+        if (subroutineType == Keyword.METHOD) {
+            code.push(Segment.ARGUMENT, 0);
+            code.pop(Segment.POINTER, 0);
         }
 
         // constructor setup: allocate fields and set this
-        if ("constructor".equals(subroutineType)) {
+        if (subroutineType == Keyword.CONSTRUCTOR) {
             int nFields = classTable.varCount(Kind.FIELD);
-            vm.writePush(Segment.CONSTANT, nFields);
-            vm.writeCall("Memory.alloc", 1);
-            vm.writePop(Segment.POINTER, 0);
+            code.push(Segment.CONSTANT, nFields);
+            code.call("Memory.alloc", 1);
+            code.pop(Segment.POINTER, 0);
         }
 
         compileStatements();
@@ -172,7 +264,7 @@ public class CompilationEngine {
     }
 
     public void compileVarDec() throws IOException {
-        eatKeyword("var");
+        eatKeyword(Keyword.VAR);
 
         String type = parseType();
         String name = eatIdentifier();
@@ -193,25 +285,30 @@ public class CompilationEngine {
 
     public void compileStatements() throws IOException {
         while (tokenizer.tokenType() == TokenType.KEYWORD) {
-            String kw = tokenizer.keyword();
-            if ("let".equals(kw)) {
-                compileLet();
-            } else if ("if".equals(kw)) {
-                compileIf();
-            } else if ("while".equals(kw)) {
-                compileWhile();
-            } else if ("do".equals(kw)) {
-                compileDo();
-            } else if ("return".equals(kw)) {
-                compileReturn();
-            } else {
-                break;
+            switch (tokenizer.keyword()) {
+                case LET:
+                    compileLet();
+                    break;
+                case IF:
+                    compileIf();
+                    break;
+                case WHILE:
+                    compileWhile();
+                    break;
+                case DO:
+                    compileDo();
+                    break;
+                case RETURN:
+                    compileReturn();
+                    break;
+                default:
+                    return;
             }
         }
     }
 
     public void compileLet() throws IOException {
-        eatKeyword("let");
+        eatKeyword(Keyword.LET);
 
         String varName = eatIdentifier();
         boolean isArray = false;
@@ -229,26 +326,37 @@ public class CompilationEngine {
             eatSymbol(']');
 
             // base + index
-            vm.writeArithmetic("add");
+            code.arithmetic(Opcode.ADD);
         }
 
         eatSymbol('=');
+        int value = code.size();
         compileExpression();
         eatSymbol(';');
 
+        if (poolStrings && !isArray) {
+            long var = varPush(varName);
+            String literal = pooledLiteralAt(value);
+            if (literal != null) {
+                pooledIn.put(var, literal);
+            } else {
+                pooledIn.remove(var);
+            }
+        }
+
         if (isArray) {
             // stack: address, value
-            vm.writePop(Segment.TEMP, 0);     // value -> temp0
-            vm.writePop(Segment.POINTER, 1);  // address -> that
-            vm.writePush(Segment.TEMP, 0);
-            vm.writePop(Segment.THAT, 0);
+            code.pop(Segment.TEMP, 0);     // value -> temp0
+            code.pop(Segment.POINTER, 1);  // address -> that
+            code.push(Segment.TEMP, 0);
+            code.pop(Segment.THAT, 0);
         } else {
             popVar(varName);
         }
     }
 
     public void compileIf() throws IOException {
-        eatKeyword("if");
+        eatKeyword(Keyword.IF);
 
         int id = ifCounter++;
         String falseLabel = "IF_FALSE" + id;
@@ -259,54 +367,111 @@ public class CompilationEngine {
         eatSymbol(')');
 
         // if NOT condition -> jump false
-        vm.writeArithmetic("not");
-        vm.writeIf(falseLabel);
+        code.arithmetic(Opcode.NOT);
+        code.ifGoto(falseLabel);
 
         eatSymbol('{');
         compileStatements();
         eatSymbol('}');
 
-        if (isKeyword("else")) {
-            vm.writeGoto(endLabel);
-            vm.writeLabel(falseLabel);
+        if (isKeyword(Keyword.ELSE)) {
+            code.goTo(endLabel);
+            code.label(falseLabel);
 
-            eatKeyword("else");
+            eatKeyword(Keyword.ELSE);
             eatSymbol('{');
             compileStatements();
             eatSymbol('}');
 
-            vm.writeLabel(endLabel);
+            code.label(endLabel);
         } else {
-            vm.writeLabel(falseLabel);
+            code.label(falseLabel);
         }
     }
 
     public void compileWhile() throws IOException {
-        eatKeyword("while");
+        eatKeyword(Keyword.WHILE);
 
         int id = whileCounter++;
         String expLabel = "WHILE_EXP" + id;
         String endLabel = "WHILE_END" + id;
 
-        vm.writeLabel(expLabel);
+        if (rotateLoops) {
+            compileRotatedWhile(expLabel, "WHILE_BODY" + id);
+            return;
+        }
+
+        code.label(expLabel);
 
         eatSymbol('(');
         compileExpression();
         eatSymbol(')');
 
-        vm.writeArithmetic("not");
-        vm.writeIf(endLabel);
+        code.arithmetic(Opcode.NOT);
+        code.ifGoto(endLabel);
 
         eatSymbol('{');
         compileStatements();
         eatSymbol('}');
 
-        vm.writeGoto(expLabel);
-        vm.writeLabel(endLabel);
+        code.goTo(expLabel);
+        code.label(endLabel);
+    }
+
+    /**
+     * goto EXP; label BODY; body; label EXP; condition; if-goto BODY. Each iteration takes
+     * one branch instead of two. The loop runs while the condition is true (-1), so the
+     * condition needs no not only if it is a comparison or true/false, possibly combined with
+     * &, | and ~. Otherwise ~x becomes "x = 0" and other values are compared with -1. A
+     * condition that is always true becomes "goto BODY". The condition is parsed first, so its
+     * code is moved behind the body.
+     */
+    private void compileRotatedWhile(String expLabel, String bodyLabel) throws IOException {
+        eatSymbol('(');
+        int start = code.size();
+        compileExpression();
+        eatSymbol(')');
+
+        int end = code.size();
+        boolean isTrue = isConstant(start, end) && constantAt(start, end) == -1;
+        boolean isBoolean = isBoolean(start, end);
+        // ~x of any other x is true exactly when x is 0
+        boolean notOfOther = !isBoolean && VMCode.opcode(code.get(end - 1)) == Opcode.NOT;
+        long[] condition = new long[end - start - (notOfOther ? 1 : 0)];
+        for (int i = 0; i < condition.length; i++) {
+            condition[i] = code.get(start + i);
+        }
+        code.truncate(start);
+        pooledStart = -1;
+
+        code.goTo(expLabel);
+        code.label(bodyLabel);
+
+        eatSymbol('{');
+        compileStatements();
+        eatSymbol('}');
+
+        code.label(expLabel);
+        if (isTrue) {
+            code.goTo(bodyLabel);
+            return;
+        }
+        for (long insn : condition) {
+            code.add(insn);
+        }
+        if (notOfOther) {
+            code.push(Segment.CONSTANT, 0);
+            code.arithmetic(Opcode.EQ);
+        } else if (!isBoolean) {
+            code.push(Segment.CONSTANT, 0);
+            code.arithmetic(Opcode.NOT);
+            code.arithmetic(Opcode.EQ);
+        }
+        code.ifGoto(bodyLabel);
     }
 
     public void compileDo() throws IOException {
-        eatKeyword("do");
+        eatKeyword(Keyword.DO);
 
         // subroutineCall starts with an identifier
         String first = eatIdentifier();
@@ -315,21 +480,21 @@ public class CompilationEngine {
         eatSymbol(';');
 
         // discard return value
-        vm.writePop(Segment.TEMP, 0);
+        code.pop(Segment.TEMP, 0);
     }
 
     public void compileReturn() throws IOException {
-        eatKeyword("return");
+        eatKeyword(Keyword.RETURN);
 
         if (!isSymbol(';')) {
             compileExpression();
         } else {
             // void return convention
-            vm.writePush(Segment.CONSTANT, 0);
+            code.push(Segment.CONSTANT, 0);
         }
 
         eatSymbol(';');
-        vm.writeReturn();
+        code.ret();
     }
 
     // ------------------------------------------------------------
@@ -337,98 +502,126 @@ public class CompilationEngine {
     // ------------------------------------------------------------
 
     public void compileExpression() throws IOException {
+        int start = code.size();
         compileTerm();
 
-        while (tokenizer.tokenType() == TokenType.SYMBOL && OPS.contains(tokenizer.symbol())) {
+        while (tokenizer.tokenType() == TokenType.SYMBOL && isOp(tokenizer.symbol())) {
             char op = tokenizer.symbol();
             tokenizer.advance();
+            int right = code.size();
             compileTerm();
+
+            // Jack evaluates strictly left to right, so the code since start is the left operand
+            if (foldConstants && isConstant(start, right) && isConstant(right, code.size())) {
+                int a = constantAt(start, right);
+                int b = constantAt(right, code.size());
+                if (ConstantFolding.canFold(op, a, b)) {
+                    code.truncate(start);
+                    pushConstant(ConstantFolding.fold(op, a, b));
+                    continue;
+                }
+            }
+            if ((op == '*' || op == '/') && reduceStrength(op, start, right)) {
+                continue;
+            }
             writeOp(op);
         }
     }
 
     public void compileTerm() throws IOException {
-        TokenType tt = tokenizer.tokenType();
-
-        if (tt == TokenType.INT_CONST) {
-            vm.writePush(Segment.CONSTANT, tokenizer.intVal());
-            tokenizer.advance();
-            return;
-        }
-
-        if (tt == TokenType.STRING_CONST) {
-            writeStringConstant(tokenizer.stringVal());
-            tokenizer.advance();
-            return;
-        }
-
-        if (tt == TokenType.KEYWORD) {
-            String kw = tokenizer.keyword();
-            if ("true".equals(kw)) {
-                vm.writePush(Segment.CONSTANT, 1);
-                vm.writeArithmetic("neg"); // -> -1
-                tokenizer.advance();
-                return;
-            }
-            if ("false".equals(kw) || "null".equals(kw)) {
-                vm.writePush(Segment.CONSTANT, 0);
+        switch (tokenizer.tokenType()) {
+            case INT_CONST:
+                code.push(Segment.CONSTANT, tokenizer.intVal());
                 tokenizer.advance();
                 return;
-            }
-            if ("this".equals(kw)) {
-                vm.writePush(Segment.POINTER, 0);
+
+            case STRING_CONST:
+                if (poolStrings) {
+                    writePooledStringConstant(tokenizer.stringVal());
+                } else {
+                    writeStringConstant(tokenizer.stringVal());
+                }
                 tokenizer.advance();
                 return;
-            }
-        }
 
-        if (tt == TokenType.SYMBOL && isSymbol('(')) {
-            eatSymbol('(');
-            compileExpression();
-            eatSymbol(')');
-            return;
-        }
+            case KEYWORD:
+                switch (tokenizer.keyword()) {
+                    case TRUE:
+                        code.push(Segment.CONSTANT, 1);
+                        code.arithmetic(Opcode.NEG); // -> -1
+                        tokenizer.advance();
+                        return;
+                    case FALSE:
+                    case NULL:
+                        code.push(Segment.CONSTANT, 0);
+                        tokenizer.advance();
+                        return;
+                    case THIS:
+                        code.push(Segment.POINTER, 0);
+                        tokenizer.advance();
+                        return;
+                    default:
+                        break;
+                }
+                break;
 
-        if (tt == TokenType.SYMBOL && (isSymbol('-') || isSymbol('~'))) {
-            char unary = tokenizer.symbol();
-            tokenizer.advance();
-            compileTerm();
-            if (unary == '-') {
-                vm.writeArithmetic("neg");
-            } else {
-                vm.writeArithmetic("not");
-            }
-            return;
-        }
+            case SYMBOL:
+                switch (tokenizer.symbol()) {
+                    case '(':
+                        eatSymbol('(');
+                        compileExpression();
+                        eatSymbol(')');
+                        return;
+                    case '-':
+                    case '~':
+                        char op = tokenizer.symbol();
+                        tokenizer.advance();
+                        int start = code.size();
+                        compileTerm();
+                        if (foldConstants && isConstant(start, code.size())) {
+                            int a = constantAt(start, code.size());
+                            code.truncate(start);
+                            pushConstant(ConstantFolding.fold(op, a));
+                        } else {
+                            code.arithmetic(op == '-' ? Opcode.NEG : Opcode.NOT);
+                        }
+                        return;
+                    default:
+                        break;
+                }
+                break;
 
-        if (tt == TokenType.IDENTIFIER) {
-            String name = tokenizer.identifier();
-            tokenizer.advance();
+            case IDENTIFIER:
+                String name = tokenizer.identifier();
+                tokenizer.advance();
 
-            // varName[expression]
-            if (isSymbol('[')) {
-                eatSymbol('[');
+                // varName[expression]
+                if (isSymbol('[')) {
+                    eatSymbol('[');
 
-                pushVar(name);       // base
-                compileExpression(); // index
+                    pushVar(name);       // base
+                    compileExpression(); // index
 
-                eatSymbol(']');
+                    eatSymbol(']');
 
-                vm.writeArithmetic("add");
-                vm.writePop(Segment.POINTER, 1);
-                vm.writePush(Segment.THAT, 0);
-                return;
-            }
+                    code.arithmetic(Opcode.ADD);
+                    code.pop(Segment.POINTER, 1);
+                    code.push(Segment.THAT, 0);
+                    return;
+                }
+
+                // subroutineCall
+                if (isSymbol('(') || isSymbol('.')) {
+                    compileSubroutineCallAfterFirst(name);
+                    return;
+                }
 
-            // subroutineCall
-            if (isSymbol('(') || isSymbol('.')) {
-                compileSubroutineCallAfterFirst(name);
+                // simple varName
+                pushVar(name);
                 return;
-            }
 
-            // simple varName
-            pushVar(name);
-            return;
+            default:
+                break;
         }
 
         throw new IllegalStateException(
@@ -465,13 +658,13 @@ public class CompilationEngine {
         // subroutineName '(' expressionList ')'
         if (isSymbol('(')) {
             // method on current object: push this
-            vm.writePush(Segment.POINTER, 0);
+            code.push(Segment.POINTER, 0);
 
             eatSymbol('(');
             int nArgs = compileExpressionList();
             eatSymbol(')');
 
-            vm.writeCall(className + "." + firstName, nArgs + 1);
+            code.call(className + "." + firstName, nArgs + 1);
             return;
         }
 
@@ -485,20 +678,31 @@ public class CompilationEngine {
             if (isVar) {
                 // method call on object variable
                 String type = resolveType(firstName);
+                int receiver = code.size();
                 pushVar(firstName); // object ref as arg0
+                if (poolStrings && secondName.equals("dispose")) {
+                    warnIfPooled(receiver, firstName + ".dispose()");
+                }
 
                 eatSymbol('(');
                 int nArgs = compileExpressionList();
                 eatSymbol(')');
 
-                vm.writeCall(type + "." + secondName, nArgs + 1);
+                code.call(type + "." + secondName, nArgs + 1);
             } else {
                 // function/constructor call on class
                 eatSymbol('(');
+                int args = code.size();
                 int nArgs = compileExpressionList();
                 eatSymbol(')');
 
-                vm.writeCall(firstName + "." + secondName, nArgs);
+                if (poolStrings && nArgs == 1 && (firstName.equals("Memory")
+                    && secondName.equals("deAlloc") || firstName.equals("String")
+                    && secondName.equals("dispose"))) {
+                    warnIfPooled(args, firstName + "." + secondName + "()");
+                }
+
+                code.call(firstName + "." + secondName, nArgs);
             }
             return;
         }
@@ -515,61 +719,331 @@ public class CompilationEngine {
     private void writeOp(char op) throws IOException {
         switch (op) {
             case '+':
-                vm.writeArithmetic("add");
+                code.arithmetic(Opcode.ADD);
                 break;
             case '-':
-                vm.writeArithmetic("sub");
+                code.arithmetic(Opcode.SUB);
                 break;
             case '&':
-                vm.writeArithmetic("and");
+                code.arithmetic(Opcode.AND);
                 break;
             case '|':
-                vm.writeArithmetic("or");
+                code.arithmetic(Opcode.OR);
                 break;
             case '<':
-                vm.writeArithmetic("lt");
+                code.arithmetic(Opcode.LT);
                 break;
             case '>':
-                vm.writeArithmetic("gt");
+                code.arithmetic(Opcode.GT);
                 break;
             case '=':
-                vm.writeArithmetic("eq");
+                code.arithmetic(Opcode.EQ);
                 break;
             case '*':
-                vm.writeCall("Math.multiply", 2);
+                code.call("Math.multiply", 2);
                 break;
             case '/':
-                vm.writeCall("Math.divide", 2);
+                code.call("Math.divide", 2);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown operator: " + op);
         }
     }
 
+    /**
+     * Replaces the Math.multiply or Math.divide call for left op right, where the left operand
+     * is code[start, right) and the right one code[right, size), by inline code if one operand
+     * is a constant it can handle. Returns false, changing nothing, otherwise.
+     */
+    private boolean reduceStrength(char op, int start, int right) {
+        if (maxMultiplyAdds < 0) {
+            return false;
+        }
+        int end = code.size();
+        if (op == '/') {
+            // the VM cannot shift, so only x / 1 is cheaper without Math.divide
+            if (isConstant(right, end) && constantAt(right, end) == 1) {
+                code.truncate(right);
+                return true;
+            }
+            return false;
+        }
+
+        int c;
+        if (isConstant(right, end)) {
+            c = constantAt(right, end);
+            if (!canInlineMultiply(c)) {
+                return false;
+            }
+            code.truncate(right);
+        } else if (isConstant(start, right)) {
+            // c * x = x * c; the constant has no side effects, so x is still evaluated once
+            c = constantAt(start, right);
+            if (!canInlineMultiply(c)) {
+                return false;
+            }
+            code.remove(start, right);
+        } else {
+            return false;
+        }
+
+        // the other operand is now code[start, size) and pushes x
+        if (c == 1) {
+            return true;
+        }
+        if (c == -1) {
+            code.arithmetic(Opcode.NEG);
+            return true;
+        }
+
+        // a single push can simply be repeated; anything else is evaluated once into temp 1
+        long x;
+        if (code.size() - start == 1 && VMCode.opcode(code.get(start)) == Opcode.PUSH) {
+            x = code.get(start);
+            code.truncate(start);
+        } else {
+            code.pop(Segment.TEMP, 1);
+            x = VMCode.encode(Opcode.PUSH, Segment.TEMP, 1);
+        }
+        if (c == 0) {
+            code.push(Segment.CONSTANT, 0);
+            return true;
+        }
+        multiply(x, Math.abs(c));
+        if (c < 0) {
+            code.arithmetic(Opcode.NEG);
+        }
+        return true;
+    }
+
+    private boolean canInlineMultiply(int c) {
+        if (c == Short.MIN_VALUE) {
+            return false;
+        }
+        int n = Math.abs(c);
+        return n <= 1 || multiplyAdds(n) <= maxMultiplyAdds;
+    }
+
+    /**
+     * Additions multiply takes for n > 0: one doubling per bit after the highest, and one
+     * add of x per further set bit.
+     */
+    private static int multiplyAdds(int n) {
+        return (31 - Integer.numberOfLeadingZeros(n)) + Integer.bitCount(n) - 1;
+    }
+
+    /**
+     * Pushes x * n for n > 0, where push is an instruction that pushes x, by doubling and
+     * adding from the highest bit of n down. The running product is kept in temp 2 while it is
+     * doubled.
+     */
+    private void multiply(long push, int n) {
+        code.add(push);
+        boolean justX = true;
+        for (int bit = 30 - Integer.numberOfLeadingZeros(n); bit >= 0; bit--) {
+            if (justX) {
+                code.add(push);
+            } else {
+                code.pop(Segment.TEMP, 2);
+                code.push(Segment.TEMP, 2);
+                code.push(Segment.TEMP, 2);
+            }
+            code.arithmetic(Opcode.ADD);
+            justX = false;
+            if ((n & (1 << bit)) != 0) {
+                code.add(push);
+                code.arithmetic(Opcode.ADD);
+            }
+        }
+    }
+
+    /**
+     * Pushes a 16-bit value. The VM only has non-negative constants, so a negative one is
+     * pushed as its negation and negated, except -32768, which is ~32767.
+     */
+    private void pushConstant(int value) {
+        if (value >= 0) {
+            code.push(Segment.CONSTANT, value);
+        } else if (value == Short.MIN_VALUE) {
+            code.push(Segment.CONSTANT, Short.MAX_VALUE);
+            code.arithmetic(Opcode.NOT);
+        } else {
+            code.push(Segment.CONSTANT, -value);
+            code.arithmetic(Opcode.NEG);
+        }
+    }
+
+    /**
+     * Is code[from, to) a constant as pushed by term or pushConstant: push constant n,
+     * optionally followed by neg or not?
+     */
+    private boolean isConstant(int from, int to) {
+        if (to - from < 1 || to - from > 2) {
+            return false;
+        }
+        long push = code.get(from);
+        if (VMCode.opcode(push) != Opcode.PUSH || VMCode.segment(push) != Segment.CONSTANT) {
+            return false;
+        }
+        if (to - from == 1) {
+            return true;
+        }
+        Opcode op = VMCode.opcode(code.get(from + 1));
+        return op == Opcode.NEG || op == Opcode.NOT;
+    }
+
+    /**
+     * Is the value code[from, to) pushes sure to be 0 or -1: a comparison, false or true, or
+     * &, | and ~ of such values? true is "push constant 1; neg" until PeepholePass runs.
+     */
+    private boolean isBoolean(int from, int to) {
+        int[] stack = new int[to - from];
+        int sp = 0;
+        for (int i = from; i < to; i++) {
+            long insn = code.get(i);
+            switch (VMCode.opcode(insn)) {
+                case PUSH:
+                    if (insn == VMCode.encode(Opcode.PUSH, Segment.CONSTANT, 0)) {
+                        stack[sp++] = BOOLEAN;
+                    } else if (insn == VMCode.encode(Opcode.PUSH, Segment.CONSTANT, 1)) {
+                        stack[sp++] = ONE;
+                    } else {
+                        stack[sp++] = OTHER;
+                    }
+                    break;
+                case EQ:
+                case LT:
+                case GT:
+                    stack[--sp - 1] = BOOLEAN;
+                    break;
+                case AND:
+                case OR:
+                    sp--;
+                    boolean both = stack[sp - 1] == BOOLEAN && stack[sp] == BOOLEAN;
+                    stack[sp - 1] = both ? BOOLEAN : OTHER;
+                    break;
+                case NEG:
+                    stack[sp - 1] = (stack[sp - 1] == ONE) ? BOOLEAN : OTHER;
+                    break;
+                case NOT:
+                    stack[sp - 1] = (stack[sp - 1] == BOOLEAN) ? BOOLEAN : OTHER;
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return sp == 1 && stack[0] == BOOLEAN;
+    }
+
+    /**
+     * The value of the constant isConstant accepted in code[from, to).
+     */
+    private int constantAt(int from, int to) {
+        int value = VMCode.index(code.get(from));
+        if (to - from == 2) {
+            switch (VMCode.opcode(code.get(from + 1))) {
+                case NEG:
+                    return ConstantFolding.fold('-', value);
+                case NOT:
+                    return ConstantFolding.fold('~', value);
+                default:
+                    break;
+            }
+        }
+        return ConstantFolding.wrap(value);
+    }
+
+    /**
+     * Pushes the pooled instance of a literal: a static slot after the class's own statics,
+     * built on first use.
+     */
+    private void writePooledStringConstant(String s) throws IOException {
+        Integer slot = stringPool.get(s);
+        if (slot == null) {
+            slot = classTable.varCount(Kind.STATIC) + stringPool.size();
+            stringPool.put(s, slot);
+        }
+        String ready = "STRING_READY" + stringCounter++;
+
+        pooledStart = code.size();
+        code.push(Segment.STATIC, slot);
+        code.ifGoto(ready);
+        writeStringConstant(s);
+        code.pop(Segment.STATIC, slot);
+        code.label(ready);
+        code.push(Segment.STATIC, slot);
+        pooledEnd = code.size();
+        pooledLiteral = s;
+    }
+
+    /**
+     * The pooled literal that code[from, size) pushes, if it is one: the literal itself, or a
+     * variable assigned one earlier in the subroutine. null otherwise.
+     */
+    private String pooledLiteralAt(int from) {
+        if (from == pooledStart && code.size() == pooledEnd) {
+            return pooledLiteral;
+        }
+        if (code.size() - from == 1) {
+            return pooledIn.get(code.get(from));
+        }
+        return null;
+    }
+
+    private void warnIfPooled(int from, String call) {
+        String literal = pooledLiteralAt(from);
+        if (literal != null) {
+            warnings.add(className + "." + subroutineName + ": " + call
+                + " frees the pooled string literal \"" + literal + "\", which is shared by"
+                + " every use of that literal in " + className);
+        }
+    }
+
+    /**
+     * The code of each subroutine compiled so far, in source order, if this engine keeps it.
+     */
+    public List<VMCode> subroutines() {
+        return subroutines;
+    }
+
+    /**
+     * Problems found that do not stop compilation, such as disposing pooled literals.
+     */
+    public List<String> warnings() {
+        return warnings;
+    }
+
     private void writeStringConstant(String s) throws IOException {
         // push length; call String.new 1
-        vm.writePush(Segment.CONSTANT, s.length());
-        vm.writeCall("String.new", 1);
+        code.push(Segment.CONSTANT, s.length());
+        code.call("String.new", 1);
 
         // for each char: push ascii; call String.appendChar 2
         for (int i = 0; i < s.length(); i++) {
-            vm.writePush(Segment.CONSTANT, (int) s.charAt(i));
-            vm.writeCall("String.appendChar", 2);
+            code.push(Segment.CONSTANT, (int) s.charAt(i));
+            code.call("String.appendChar", 2);
         }
     }
 
+    /**
+     * The instruction pushVar emits for the variable.
+     */
+    private long varPush(String name) {
+        return VMCode.encode(Opcode.PUSH, segmentOf(resolveKind(name)), resolveIndex(name));
+    }
+
     private void pushVar(String name) throws IOException {
         Kind k = resolveKind(name);
         int idx = resolveIndex(name);
 
-        vm.writePush(segmentOf(k), idx);
+        code.push(segmentOf(k), idx);
     }
 
     private void popVar(String name) throws IOException {
         Kind k = resolveKind(name);
         int idx = resolveIndex(name);
 
-        vm.writePop(segmentOf(k), idx);
+        code.pop(segmentOf(k), idx);
     }
 
     private Segment segmentOf(Kind kind) {
@@ -617,10 +1091,15 @@ public class CompilationEngine {
 
     private String parseType() throws IOException {
         if (tokenizer.tokenType() == TokenType.KEYWORD) {
-            String kw = tokenizer.keyword();
-            if ("int".equals(kw) || "char".equals(kw) || "boolean".equals(kw)) {
-                tokenizer.advance();
-                return kw;
+            switch (tokenizer.keyword()) {
+                case INT:
+                case CHAR:
+                case BOOLEAN:
+                    String kw = tokenizer.keyword().text();
+                    tokenizer.advance();
+                    return kw;
+                default:
+                    break;
             }
         }
         if (tokenizer.tokenType() == TokenType.IDENTIFIER) {
@@ -632,17 +1111,21 @@ public class CompilationEngine {
             "Expected type but got: " + tokenizer.tokenType() + " " + tokenizer.token());
     }
 
-    private boolean isKeyword(String kw) {
-        return tokenizer.tokenType() == TokenType.KEYWORD && kw.equals(tokenizer.keyword());
+    private boolean isKeyword(Keyword kw) {
+        return tokenizer.tokenType() == TokenType.KEYWORD && tokenizer.keyword() == kw;
+    }
+
+    private static boolean isOp(char c) {
+        return c < 128 && OPS[c];
     }
 
     private boolean isSymbol(char c) {
         return tokenizer.tokenType() == TokenType.SYMBOL && tokenizer.symbol() == c;
     }
 
-    private void eatKeyword(String expected) throws IOException {
+    private void eatKeyword(Keyword expected) throws IOException {
         if (!isKeyword(expected)) {
-            throw new IllegalStateException("Expected keyword '" + expected + "' but got: "
+            throw new IllegalStateException("Expected keyword '" + expected.text() + "' but got: "
                 + tokenizer.tokenType() + " " + tokenizer.token());
         }
         tokenizer.advance();
@@ -0,0 +1,84 @@
+package main.project_11;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Thin client for CompilerDaemon: sends the JackCompiler arguments to the daemon and relays its
+ * output and exit status. If no daemon is listening, compiles in this process instead.
+ */
+public class CompilerClient {
+
+    public static void main(String[] args) {
+        Path socket = CompilerDaemon.DEFAULT_SOCKET;
+        if (args.length >= 2 && "--socket".equals(args[0])) {
+            socket = Paths.get(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+
+        SocketChannel ch;
+        try {
+            ch = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            int status = JackCompiler.run(args, Paths.get(""), System.out, System.err);
+            if (status != 0) {
+                System.exit(status);
+            }
+            return;
+        }
+
+        int status;
+        try (SocketChannel c = ch) {
+            status = send(c, args);
+        } catch (IOException e) {
+            System.err.println("Lost connection to compiler daemon on " + socket + ": " + e);
+            status = 2;
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    private static int send(SocketChannel ch, String[] args) throws IOException {
+        StringBuilder request = new StringBuilder();
+        request.append(Paths.get("").toAbsolutePath()).append('\n');
+        for (String arg : args) {
+            request.append(arg).append('\n');
+        }
+        request.append('\n');
+        OutputStream out = Channels.newOutputStream(ch);
+        out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(Channels.newInputStream(ch), StandardCharsets.UTF_8));
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            switch (line.charAt(0)) {
+                case '1':
+                    System.out.println(line.substring(1));
+                    break;
+                case '2':
+                    System.err.println(line.substring(1));
+                    break;
+                case 'x':
+                    return Integer.parseInt(line.substring(1));
+                default:
+                    throw new IOException("Unexpected reply: " + line);
+            }
+        }
+        throw new IOException("daemon closed the connection");
+    }
+
+}
@@ -0,0 +1,227 @@
+package main.project_11;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-running compiler server, so repeated builds skip JVM startup and run on warmed-up code.
+ * Listens on a Unix domain socket and serves any number of clients concurrently; it stops once
+ * no request has been active for the idle timeout, or when asked to with --shutdown.
+ * <p>
+ * Protocol (UTF-8 lines): the client sends its working directory, then one JackCompiler
+ * argument per line, then an empty line. The server answers with the compiler's output as
+ * lines tagged '1' (stdout) or '2' (stderr), and finally 'x' followed by the exit status.
+ */
+public class CompilerDaemon {
+
+    public static final Path DEFAULT_SOCKET = Paths.get(System.getProperty("java.io.tmpdir"),
+        "jack-compiler-" + System.getProperty("user.name") + ".sock");
+
+    public static final String SHUTDOWN = "--shutdown";
+
+    private static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 15 * 60;
+
+    private final Path socket;
+    private final long idleTimeoutMillis;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile long lastActivity = System.currentTimeMillis();
+    private ServerSocketChannel server;
+
+    public CompilerDaemon(Path socket, long idleTimeoutSeconds) {
+        this.socket = socket;
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeoutSeconds);
+    }
+
+    public static void main(String[] args) {
+        Path socket = DEFAULT_SOCKET;
+        long idleTimeout = DEFAULT_IDLE_TIMEOUT_SECONDS;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if ("--socket".equals(args[i]) && i + 1 < args.length) {
+                    socket = Paths.get(args[i + 1]);
+                } else if ("--idle-timeout".equals(args[i]) && i + 1 < args.length) {
+                    idleTimeout = Long.parseLong(args[i + 1]);
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Usage: CompilerDaemon [--socket PATH] [--idle-timeout SECONDS]");
+            System.err.println("  default socket: " + DEFAULT_SOCKET);
+            System.exit(1);
+        }
+
+        try {
+            new CompilerDaemon(socket, idleTimeout).serve();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Accepts and serves requests until shut down. Requests still running at that point are
+     * allowed to finish.
+     */
+    public void serve() throws IOException, InterruptedException {
+        removeStaleSocket();
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        System.out.println("Listening on " + socket);
+
+        ExecutorService workers = Executors.newCachedThreadPool();
+        ScheduledExecutorService idleCheck = Executors.newSingleThreadScheduledExecutor();
+        idleCheck.scheduleWithFixedDelay(this::stopIfIdle, 1, 1, TimeUnit.SECONDS);
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+                active.incrementAndGet();
+                workers.execute(() -> handle(client));
+            }
+        } catch (ClosedChannelException e) {
+            // stopped
+        } finally {
+            idleCheck.shutdownNow();
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (SocketChannel ch = client;
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(Channels.newInputStream(ch), StandardCharsets.UTF_8));
+            OutputStream raw = Channels.newOutputStream(ch)) {
+
+            String dir = in.readLine();
+            List<String> args = new ArrayList<>();
+            for (String line = in.readLine(); line != null && !line.isEmpty();
+                line = in.readLine()) {
+                args.add(line);
+            }
+            if (dir == null) {
+                return;
+            }
+
+            int status;
+            if (args.size() == 1 && SHUTDOWN.equals(args.get(0))) {
+                server.close();
+                status = 0;
+            } else {
+                try (PrintStream out = new PrintStream(new TaggedLines(raw, '1'), true,
+                    StandardCharsets.UTF_8);
+                    PrintStream err = new PrintStream(new TaggedLines(raw, '2'), true,
+                        StandardCharsets.UTF_8)) {
+                    status = JackCompiler.run(args.toArray(new String[0]), Paths.get(dir), out,
+                        err);
+                }
+            }
+            synchronized (raw) {
+                raw.write(("x" + status + "\n").getBytes(StandardCharsets.UTF_8));
+                raw.flush();
+            }
+        } catch (IOException e) {
+            // client went away; nothing left to report to
+        } finally {
+            lastActivity = System.currentTimeMillis();
+            active.decrementAndGet();
+        }
+    }
+
+    private void stopIfIdle() {
+        if (active.get() == 0 && System.currentTimeMillis() - lastActivity > idleTimeoutMillis) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    private void removeStaleSocket() throws IOException {
+        if (!Files.exists(socket)) {
+            return;
+        }
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+        } catch (IOException e) {
+            // left behind by a daemon that did not shut down cleanly
+            Files.delete(socket);
+            return;
+        }
+        throw new IllegalStateException("A compiler daemon is already listening on " + socket);
+    }
+
+    /**
+     * Writes each line printed to it as one protocol line tagged with the given stream tag.
+     * Lines of stdout and stderr may interleave, but are never mixed within a line.
+     */
+    private static final class TaggedLines extends OutputStream {
+
+        private final OutputStream sink;
+        private final int tag;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        TaggedLines(OutputStream sink, char tag) {
+            this.sink = sink;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '\n') {
+                emit();
+            } else {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (sink) {
+                sink.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (line.size() > 0) {
+                emit();
+            }
+            flush();
+        }
+
+        private void emit() throws IOException {
+            synchronized (sink) {
+                sink.write(tag);
+                line.writeTo(sink);
+                sink.write('\n');
+            }
+            line.reset();
+        }
+    }
+
+}
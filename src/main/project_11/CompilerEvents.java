@@ -0,0 +1,72 @@
+package main.project_11;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder events for the compiler phases, recorded with e.g.
+ * -XX:StartFlightRecording=filename=build.jfr and viewed in JDK Mission Control next to GC and
+ * allocation samples. Callers only fill in the fields if shouldCommit(), so with recording off
+ * an event costs no more than its (escape-analyzed) creation.
+ */
+public final class CompilerEvents {
+
+    private CompilerEvents() {
+    }
+
+    @Name("jack.compiler.File")
+    @Label("Compile File")
+    @Category({"Jack", "Compiler"})
+    @Description("Compiling one .jack file to .vm, or restoring it from the cache")
+    static final class FileCompiled extends Event {
+
+        @Label("Source")
+        String source;
+
+        @Label("Cached")
+        boolean cached;
+
+        @Label("Tokens")
+        long tokens;
+
+        @Label("Instructions")
+        long instructions;
+    }
+
+    @Name("jack.compiler.Class")
+    @Label("Compile Class")
+    @Category({"Jack", "Compiler"})
+    static final class ClassCompiled extends Event {
+
+        @Label("Class")
+        String className;
+
+        @Label("Tokens")
+        long tokens;
+
+        @Label("Instructions")
+        long instructions;
+    }
+
+    @Name("jack.compiler.Subroutine")
+    @Label("Compile Subroutine")
+    @Category({"Jack", "Compiler"})
+    static final class SubroutineCompiled extends Event {
+
+        @Label("Class")
+        String className;
+
+        @Label("Subroutine")
+        String subroutineName;
+
+        @Label("Tokens")
+        long tokens;
+
+        @Label("Instructions")
+        long instructions;
+    }
+
+}
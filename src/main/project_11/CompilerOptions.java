@@ -0,0 +1,109 @@
+package main.project_11;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command-line options of one JackCompiler run.
+ */
+public class CompilerOptions {
+
+    public static final String USAGE = String.join(System.lineSeparator(),
+        "Usage: JackCompiler [-O0|-O1|-O2] [--max-multiply-adds N] [--jobs N] [--cache DIR]",
+        "                    [--pool-strings] [--whole-program [--entry Class.sub]...]",
+        "                    [--inline-limit N]",
+        "                    [--report FILE] <source>",
+        "  <source> is either Xxx.jack or a directory containing .jack files",
+        "  -O<level> sets the optimization level; -O0 (default) does not optimize",
+        "  --max-multiply-adds N inlines multiplications by constants that take at most N",
+        "    additions instead of calling Math.multiply (-O1 and up, default 6)",
+        "  --pool-strings builds each distinct string literal of a class only once and shares",
+        "    it between all its uses; such strings must not be disposed",
+        "  --whole-program leaves out subroutines that cannot be called from Main.main,",
+        "    Sys.init or an --entry; not combinable with --cache or --report",
+        "  --inline-limit N inlines calls to subroutines of at most N instructions",
+        "    (whole-program mode at -O2, default 12, 0 to disable)",
+        "  --jobs N compiles up to N files of a directory in parallel",
+        "  --cache DIR reuses outputs of unchanged sources stored in DIR",
+        "  --report FILE writes per-phase compile metrics to FILE as JSON");
+
+    int jobs = 1;
+    Path cacheDir = null;
+    Path reportFile = null;
+    int optLevel = 0;
+    int maxMultiplyAdds = 6;
+    boolean poolStrings = false;
+    boolean wholeProgram = false;
+    List<String> entryPoints = new ArrayList<>();
+    int inlineLimit = 12;
+    Path source = null;
+
+    /**
+     * Parses args, resolving relative paths against dir. Returns null if they are not valid.
+     */
+    public static CompilerOptions parse(String[] args, Path dir) {
+        CompilerOptions options = new CompilerOptions();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].matches("-O[0-9]")) {
+                options.optLevel = args[i].charAt(2) - '0';
+            } else if ("--max-multiply-adds".equals(args[i]) && i + 1 < args.length) {
+                options.maxMultiplyAdds = parseInt(args[++i]);
+            } else if ("--pool-strings".equals(args[i])) {
+                options.poolStrings = true;
+            } else if ("--whole-program".equals(args[i])) {
+                options.wholeProgram = true;
+            } else if ("--entry".equals(args[i]) && i + 1 < args.length) {
+                options.entryPoints.add(args[++i]);
+            } else if ("--inline-limit".equals(args[i]) && i + 1 < args.length) {
+                options.inlineLimit = parseInt(args[++i]);
+            } else if ("--jobs".equals(args[i]) && i + 1 < args.length) {
+                options.jobs = parseInt(args[++i]);
+            } else if ("--cache".equals(args[i]) && i + 1 < args.length) {
+                options.cacheDir = dir.resolve(args[++i]);
+            } else if ("--report".equals(args[i]) && i + 1 < args.length) {
+                options.reportFile = dir.resolve(args[++i]);
+            } else if (options.source == null && !args[i].startsWith("--")) {
+                options.source = dir.resolve(args[i]);
+            } else {
+                return null;
+            }
+        }
+        if (options.source == null || options.jobs < 1
+            || options.optLevel > Optimizer.MAX_LEVEL || options.maxMultiplyAdds < 0
+            || options.inlineLimit < 0) {
+            return null;
+        }
+        if (options.wholeProgram
+            ? options.cacheDir != null || options.reportFile != null
+            : !options.entryPoints.isEmpty()) {
+            return null;
+        }
+        return options;
+    }
+
+    /**
+     * The options that affect generated code, for cache keys.
+     */
+    String fingerprint() {
+        StringBuilder sb = new StringBuilder();
+        if (optLevel > 0) {
+            sb.append(" -O").append(optLevel);
+            sb.append(" --max-multiply-adds ").append(maxMultiplyAdds);
+            sb.append(" passes ").append(new Optimizer(optLevel).passNames());
+        }
+        if (poolStrings) {
+            sb.append(" --pool-strings");
+        }
+        return sb.toString();
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
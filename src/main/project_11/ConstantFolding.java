@@ -0,0 +1,73 @@
+package main.project_11;
+
+/**
+ * Evaluates Jack operators on constants the way the Hack platform does at runtime: 16-bit
+ * two's complement arithmetic that wraps around, true as -1 and false as 0.
+ */
+public final class ConstantFolding {
+
+    private ConstantFolding() {
+    }
+
+    /**
+     * Can a op b be evaluated at compile time? Division is left to Math.divide when it would
+     * fail at runtime (by zero) or overflow (-32768 has no positive counterpart).
+     */
+    public static boolean canFold(char op, int a, int b) {
+        if (op == '/') {
+            return b != 0 && a != Short.MIN_VALUE && b != Short.MIN_VALUE;
+        }
+        return true;
+    }
+
+    public static int fold(char op, int a, int b) {
+        switch (op) {
+            case '+':
+                return wrap(a + b);
+            case '-':
+                return wrap(a - b);
+            case '*':
+                return wrap(a * b);
+            case '/':
+                return wrap(a / b); // truncates toward zero, like Math.divide
+            case '&':
+                return wrap(a & b);
+            case '|':
+                return wrap(a | b);
+            case '<':
+                return bool(a < b);
+            case '>':
+                return bool(a > b);
+            case '=':
+                return bool(a == b);
+            default:
+                throw new IllegalArgumentException("Unknown operator: " + op);
+        }
+    }
+
+    /**
+     * op is a unary operator, '-' or '~'.
+     */
+    public static int fold(char op, int a) {
+        switch (op) {
+            case '-':
+                return wrap(-a);
+            case '~':
+                return wrap(~a);
+            default:
+                throw new IllegalArgumentException("Unknown unary operator: " + op);
+        }
+    }
+
+    /**
+     * The value of the low 16 bits as a signed Hack word.
+     */
+    public static int wrap(int v) {
+        return (short) v;
+    }
+
+    private static int bool(boolean b) {
+        return b ? -1 : 0;
+    }
+
+}
@@ -0,0 +1,96 @@
+package main.project_11;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The basic blocks of a subroutine's code and the jumps between them. The first block starts
+ * right after the function command; a block ends at a jump or return, or before a label.
+ */
+public class FlowGraph {
+
+    private final int[] starts;
+    private final int[][] successors;
+
+    public FlowGraph(VMCode code) {
+        int n = code.size();
+        List<Integer> leaders = new ArrayList<>();
+        Map<Integer, Integer> blockOfLabel = new HashMap<>();
+        boolean leader = true;
+        for (int i = 1; i < n; i++) {
+            Opcode op = VMCode.opcode(code.get(i));
+            if (op == Opcode.LABEL) {
+                blockOfLabel.put(VMCode.nameId(code.get(i)), leaders.size());
+                leader = true;
+            }
+            if (leader) {
+                leaders.add(i);
+                leader = false;
+            }
+            if (op == Opcode.GOTO || op == Opcode.IF_GOTO || op == Opcode.RETURN) {
+                leader = true;
+            }
+        }
+
+        int blocks = leaders.size();
+        starts = new int[blocks + 1];
+        for (int b = 0; b < blocks; b++) {
+            starts[b] = leaders.get(b);
+        }
+        starts[blocks] = n;
+
+        successors = new int[blocks][];
+        for (int b = 0; b < blocks; b++) {
+            long last = code.get(starts[b + 1] - 1);
+            boolean hasNext = b + 1 < blocks;
+            switch (VMCode.opcode(last)) {
+                case GOTO:
+                    successors[b] = new int[] {target(blockOfLabel, code, last)};
+                    break;
+                case IF_GOTO:
+                    int target = target(blockOfLabel, code, last);
+                    successors[b] = hasNext ? new int[] {b + 1, target} : new int[] {target};
+                    break;
+                case RETURN:
+                    successors[b] = new int[0];
+                    break;
+                default:
+                    successors[b] = hasNext ? new int[] {b + 1} : new int[0];
+                    break;
+            }
+        }
+    }
+
+    private static int target(Map<Integer, Integer> blockOfLabel, VMCode code, long jump) {
+        Integer block = blockOfLabel.get(VMCode.nameId(jump));
+        if (block == null) {
+            throw new IllegalStateException("Jump to undefined label: " + code.toString(jump));
+        }
+        return block;
+    }
+
+    public int size() {
+        return successors.length;
+    }
+
+    /**
+     * Index of the block's first instruction.
+     */
+    public int start(int block) {
+        return starts[block];
+    }
+
+    /**
+     * Index just past the block's last instruction.
+     */
+    public int end(int block) {
+        return starts[block + 1];
+    }
+
+    public int[] successors(int block) {
+        return successors[block];
+    }
+
+}
@@ -0,0 +1,285 @@
+package main.project_11;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Whole-program inlining: replaces calls to small subroutines of the program by a copy of
+ * their code. The callee's arguments and locals become extra locals of the caller, its labels
+ * are renamed apart, and each return jumps to the end of the copy. A real return restores the
+ * caller's this and that, so a callee that sets pointer 0 (every method and constructor) or
+ * pointer 1 (any array access) runs between a save and a restore of that pointer. temp is not
+ * restored by a return either, so calling and inlining treat it alike.
+ * <p>
+ * Not inlined: subroutines on a call cycle (recursion), ones larger than the limit, and ones
+ * using statics of another class than the caller's, since statics are private to a .vm file.
+ * A caller stops taking inlined code once it has grown by GROWTH_FACTOR * limit instructions.
+ */
+public class Inliner {
+
+    private static final int GROWTH_FACTOR = 8;
+
+    private final Map<String, VMCode> program;
+    private final int limit;
+    private final Set<String> recursive;
+    private int inlined = 0;
+
+    /**
+     * limit is the largest callee, in instructions without its function command.
+     */
+    public Inliner(Map<String, VMCode> program, int limit) {
+        this.program = program;
+        this.limit = limit;
+        this.recursive = recursive(program);
+    }
+
+    /**
+     * Number of call sites inlined so far.
+     */
+    public int inlined() {
+        return inlined;
+    }
+
+    /**
+     * Inlines what it can into the named subroutine. Returns whether its code changed.
+     */
+    public boolean inlineInto(String caller) {
+        VMCode code = program.get(caller);
+        VMCode result = code.copy();
+        result.clear();
+
+        long header = code.get(0);
+        int base = VMCode.index(header);
+        int extraLocals = 0;
+        int budget = GROWTH_FACTOR * limit;
+        int site = 0;
+
+        result.add(header);
+        for (int i = 1; i < code.size(); i++) {
+            long insn = code.get(i);
+            if (VMCode.opcode(insn) == Opcode.CALL) {
+                String name = code.name(VMCode.nameId(insn));
+                VMCode callee = program.get(name);
+                if (callee != null && canInline(caller, name, callee)
+                    && callee.size() - 1 <= budget) {
+                    int start = result.size();
+                    int locals = inline(result, callee, VMCode.index(insn), base, site++);
+                    extraLocals = Math.max(extraLocals, locals);
+                    budget -= result.size() - start - 1;
+                    inlined++;
+                    continue;
+                }
+            }
+            result.add(insn);
+        }
+
+        if (site == 0) {
+            return false;
+        }
+        result.set(0, VMCode.encode(Opcode.FUNCTION, VMCode.nameId(header), base + extraLocals));
+        code.clear();
+        for (int i = 0; i < result.size(); i++) {
+            code.add(result.get(i));
+        }
+        return true;
+    }
+
+    private boolean canInline(String caller, String name, VMCode callee) {
+        if (callee.size() - 1 > limit || recursive.contains(name)) {
+            return false;
+        }
+        String callerClass = caller.substring(0, caller.indexOf('.'));
+        boolean sameClass =
+            name.startsWith(callerClass) && name.charAt(callerClass.length()) == '.';
+        for (int i = 1; i < callee.size(); i++) {
+            long insn = callee.get(i);
+            Opcode op = VMCode.opcode(insn);
+            if ((op == Opcode.PUSH || op == Opcode.POP) && VMCode.segment(insn) == Segment.STATIC
+                && !sameClass) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the callee's code in place of a call with nArgs arguments, using the caller's
+     * locals from base on. Returns how many locals it used.
+     */
+    private static int inline(VMCode out, VMCode callee, int nArgs, int base, int site) {
+        int nLocals = VMCode.index(callee.get(0));
+        // local saving each pointer the callee sets, or -1
+        int[] saves = {-1, -1};
+        int nSaves = 0;
+        for (int i = 1; i < callee.size(); i++) {
+            long insn = callee.get(i);
+            if (VMCode.opcode(insn) == Opcode.POP && VMCode.segment(insn) == Segment.POINTER
+                && saves[VMCode.index(insn)] < 0) {
+                saves[VMCode.index(insn)] = base + nArgs + nLocals + nSaves++;
+            }
+        }
+
+        for (int a = nArgs - 1; a >= 0; a--) {
+            out.pop(Segment.LOCAL, base + a);
+        }
+        for (int l = 0; l < nLocals; l++) {
+            // a called subroutine's locals start out as 0
+            out.push(Segment.CONSTANT, 0);
+            out.pop(Segment.LOCAL, base + nArgs + l);
+        }
+        for (int p = 0; p < saves.length; p++) {
+            if (saves[p] >= 0) {
+                out.push(Segment.POINTER, p);
+                out.pop(Segment.LOCAL, saves[p]);
+            }
+        }
+
+        String prefix = "INLINE" + site + "_";
+        String end = prefix + "END";
+        boolean jumpsToEnd = false;
+        for (int i = 1; i < callee.size(); i++) {
+            long insn = callee.get(i);
+            Opcode op = VMCode.opcode(insn);
+            switch (op) {
+                case PUSH:
+                case POP:
+                    int index = VMCode.index(insn);
+                    switch (VMCode.segment(insn)) {
+                        case ARGUMENT:
+                            out.add(VMCode.encode(op, Segment.LOCAL, base + index));
+                            break;
+                        case LOCAL:
+                            out.add(VMCode.encode(op, Segment.LOCAL, base + nArgs + index));
+                            break;
+                        default:
+                            out.add(insn);
+                            break;
+                    }
+                    break;
+                case LABEL:
+                    out.label(prefix + callee.name(VMCode.nameId(insn)));
+                    break;
+                case GOTO:
+                    out.goTo(prefix + callee.name(VMCode.nameId(insn)));
+                    break;
+                case IF_GOTO:
+                    out.ifGoto(prefix + callee.name(VMCode.nameId(insn)));
+                    break;
+                case CALL:
+                    out.call(callee.name(VMCode.nameId(insn)), VMCode.index(insn));
+                    break;
+                case RETURN:
+                    // the return value stays on the stack
+                    for (int p = 0; p < saves.length; p++) {
+                        if (saves[p] >= 0) {
+                            out.push(Segment.LOCAL, saves[p]);
+                            out.pop(Segment.POINTER, p);
+                        }
+                    }
+                    if (i < callee.size() - 1) {
+                        out.goTo(end);
+                        jumpsToEnd = true;
+                    }
+                    break;
+                default:
+                    out.add(insn);
+                    break;
+            }
+        }
+        if (jumpsToEnd) {
+            out.label(end);
+        }
+        return nArgs + nLocals + nSaves;
+    }
+
+    /**
+     * Subroutines on a cycle of the call graph, found as its strongly connected components
+     * (Tarjan's algorithm, iterative so deep call chains cannot overflow the Java stack).
+     */
+    private static Set<String> recursive(Map<String, VMCode> program) {
+        Map<String, List<String>> callees = new HashMap<>();
+        for (Map.Entry<String, VMCode> e : program.entrySet()) {
+            VMCode code = e.getValue();
+            List<String> calls = new ArrayList<>();
+            for (int i = 0; i < code.size(); i++) {
+                long insn = code.get(i);
+                if (VMCode.opcode(insn) == Opcode.CALL) {
+                    String callee = code.name(VMCode.nameId(insn));
+                    if (program.containsKey(callee)) {
+                        calls.add(callee);
+                    }
+                }
+            }
+            callees.put(e.getKey(), calls);
+        }
+
+        Set<String> result = new HashSet<>();
+        Map<String, Integer> index = new HashMap<>();
+        Map<String, Integer> low = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Set<String> onStack = new HashSet<>();
+        Deque<String> path = new ArrayDeque<>();
+        Deque<Integer> next = new ArrayDeque<>();
+
+        for (String root : program.keySet()) {
+            if (index.containsKey(root)) {
+                continue;
+            }
+            path.push(root);
+            next.push(0);
+            index.put(root, index.size());
+            low.put(root, index.get(root));
+            stack.push(root);
+            onStack.add(root);
+
+            while (!path.isEmpty()) {
+                String v = path.peek();
+                int n = next.pop();
+                List<String> calls = callees.get(v);
+                if (n < calls.size()) {
+                    next.push(n + 1);
+                    String w = calls.get(n);
+                    if (w.equals(v)) {
+                        result.add(v);
+                    } else if (!index.containsKey(w)) {
+                        index.put(w, index.size());
+                        low.put(w, index.get(w));
+                        stack.push(w);
+                        onStack.add(w);
+                        path.push(w);
+                        next.push(0);
+                    } else if (onStack.contains(w)) {
+                        low.put(v, Math.min(low.get(v), index.get(w)));
+                    }
+                    continue;
+                }
+
+                path.pop();
+                if (!path.isEmpty()) {
+                    String parent = path.peek();
+                    low.put(parent, Math.min(low.get(parent), low.get(v)));
+                }
+                if (low.get(v).equals(index.get(v))) {
+                    List<String> component = new ArrayList<>();
+                    String w;
+                    do {
+                        w = stack.pop();
+                        onStack.remove(w);
+                        component.add(w);
+                    } while (!w.equals(v));
+                    if (component.size() > 1) {
+                        result.addAll(component);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+}
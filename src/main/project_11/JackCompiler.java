@@ -1,50 +1,305 @@
 package main.project_11;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 public class JackCompiler {
 
+    // Bump whenever the generated code or what is cached with it changes, so cached outputs of
+    // older versions are ignored. The options' fingerprint adds the optimization level and its
+    // passes.
+    private static final String VERSION = "3";
+    private static final String FINGERPRINT = "JackCompiler " + VERSION;
+
+    // Sources of at least this many bytes are tokenized on the fly instead of up front
+    private static final long STREAM_THRESHOLD = 16L << 20;
+
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("Usage: JackCompiler <source>");
-            System.err.println(
-                "  <source> is either Xxx.jack or a directory containing .jack files");
-            System.exit(1);
+        int status = run(args, Paths.get(""), System.out, System.err);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs one compiler invocation with relative paths resolved against dir. Returns the exit
+     * status: 0 on success, 1 for invalid arguments and 2 if compilation failed.
+     */
+    public static int run(String[] args, Path dir, PrintStream out, PrintStream err) {
+        CompilerOptions options = CompilerOptions.parse(args, dir);
+        if (options == null) {
+            err.println(CompilerOptions.USAGE);
+            return 1;
         }
 
-        Path source = Paths.get(args[0]);
+        CompileCache cache = (options.cacheDir == null) ? null
+            : new CompileCache(options.cacheDir, FINGERPRINT + options.fingerprint(), ".vm");
+
+        BuildReport report = (options.reportFile == null) ? null : new BuildReport();
 
         try {
+            long t0 = System.nanoTime();
+            Path source = options.source;
+            List<Path> jackFiles;
             if (Files.isDirectory(source)) {
-                for (Path jackFile : listJackFiles(source)) {
-                    compileOne(jackFile);
-                }
+                jackFiles = listJackFiles(source);
             } else {
                 if (!source.toString().toLowerCase().endsWith(".jack")) {
                     throw new IllegalArgumentException("Input file must be .jack: " + source);
                 }
-                compileOne(source);
+                jackFiles = List.of(source);
+            }
+            if (options.wholeProgram) {
+                compileProgram(jackFiles, options, out, err);
+            } else {
+                compileAll(jackFiles, options, cache, report, out, err);
+            }
+            if (cache != null) {
+                out.println("Cache: " + cache.hits() + " hits, " + cache.misses() + " misses");
+            }
+            if (report != null) {
+                report.write(options.reportFile, System.nanoTime() - t0, options.jobs);
+                out.println("Report: " + options.reportFile);
             }
         } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(2);
+            e.printStackTrace(err);
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Compiles the files on up to jobs threads.
+     */
+    private static void compileAll(List<Path> jackFiles, CompilerOptions options,
+        CompileCache cache, BuildReport report, PrintStream out, PrintStream err)
+        throws Exception {
+        forEachFile(jackFiles, options.jobs, jackFile -> compileOne(jackFile, options, cache),
+            stats -> written(stats, report, out, err));
+    }
+
+    /**
+     * Whole-program mode: compiles all classes into memory, drops the subroutines that cannot
+     * be reached from Main.main, Sys.init (when the program brings its own Sys) or the extra
+     * entry points, and only then writes the files.
+     */
+    private static void compileProgram(List<Path> jackFiles, CompilerOptions options,
+        PrintStream out, PrintStream err) throws Exception {
+        List<CompilationEngine> classes = new ArrayList<>();
+        forEachFile(jackFiles, options.jobs, jackFile -> compileToMemory(jackFile, options),
+            classes::add);
+
+        Map<String, VMCode> program = new LinkedHashMap<>();
+        for (CompilationEngine engine : classes) {
+            for (VMCode code : engine.subroutines()) {
+                program.put(code.functionName(), code);
+            }
+        }
+        if (options.optLevel >= 2 && options.inlineLimit > 0) {
+            Inliner inliner = new Inliner(program, options.inlineLimit);
+            Optimizer optimizer = new Optimizer(options.optLevel);
+            for (Map.Entry<String, VMCode> e : program.entrySet()) {
+                if (inliner.inlineInto(e.getKey())) {
+                    optimizer.optimize(e.getValue());
+                }
+            }
+            out.println("Inlined " + inliner.inlined() + " calls");
+        }
+
+        List<String> entries = new ArrayList<>();
+        entries.add("Main.main");
+        // the VM runs Sys.init first; a program that defines it starts there, not at Main.main
+        entries.add("Sys.init");
+        entries.addAll(options.entryPoints);
+        Set<String> live = TreeShaker.reachable(program, entries);
+        if (live.isEmpty()) {
+            throw new IllegalArgumentException("None of the entry points is defined: " + entries);
+        }
+
+        for (int i = 0; i < jackFiles.size(); i++) {
+            CompilationEngine engine = classes.get(i);
+            for (String warning : engine.warnings()) {
+                err.println("Warning: " + warning);
+            }
+            Path outVm = outputVmPathFor(jackFiles.get(i));
+            try (VMWriter vm = new VMWriter(outVm)) {
+                for (VMCode code : engine.subroutines()) {
+                    if (live.contains(code.functionName())) {
+                        vm.write(code);
+                    }
+                }
+            }
+            out.println("Wrote: " + outVm);
+        }
+
+        List<String> removed = new ArrayList<>(program.keySet());
+        removed.removeAll(live);
+        out.println("Removed " + removed.size() + " unreachable subroutine"
+            + (removed.size() == 1 ? "" : "s") + (removed.isEmpty() ? "" : ":"));
+        for (String name : removed) {
+            out.println("  " + name);
+        }
+    }
+
+    private interface FileTask<T> {
+
+        T run(Path jackFile) throws Exception;
+    }
+
+    /**
+     * Runs the task for each file on up to jobs threads. Each file is independent, so they can
+     * run in any order; results are still handed to done in list order, and the first failure
+     * in that order is rethrown, just as when running them one after another.
+     */
+    private static <T> void forEachFile(List<Path> jackFiles, int jobs, FileTask<T> task,
+        Consumer<T> done) throws Exception {
+        jobs = Math.min(jobs, jackFiles.size());
+        if (jobs <= 1) {
+            for (Path jackFile : jackFiles) {
+                done.accept(task.run(jackFile));
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try {
+            List<Future<T>> results = new ArrayList<>();
+            for (Path jackFile : jackFiles) {
+                results.add(pool.submit(() -> task.run(jackFile)));
+            }
+            for (Future<T> result : results) {
+                done.accept(result.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (Exception) cause;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void written(BuildReport.FileStats stats, BuildReport report,
+        PrintStream out, PrintStream err) {
+        for (String warning : stats.warnings()) {
+            err.println("Warning: " + warning);
+        }
+        out.println("Wrote: " + stats.output());
+        if (report != null) {
+            report.add(stats);
+        }
+    }
+
+    private static BuildReport.FileStats compileOne(Path jackFile, CompilerOptions options,
+        CompileCache cache) throws IOException {
+        CompilerEvents.FileCompiled event = new CompilerEvents.FileCompiled();
+        event.begin();
+        BuildReport.FileStats stats = compileOrRestore(jackFile, options, cache);
+        if (event.shouldCommit()) {
+            event.source = jackFile.toString();
+            event.cached = stats.cached;
+            event.tokens = stats.tokens;
+            event.instructions = stats.instructions;
+            event.commit();
         }
+        return stats;
     }
 
-    private static void compileOne(Path jackFile) throws IOException {
+    private static BuildReport.FileStats compileOrRestore(Path jackFile,
+        CompilerOptions options, CompileCache cache) throws IOException {
+        BuildReport.FileStats stats = new BuildReport.FileStats(jackFile);
+        long allocated = BuildReport.allocatedBytes();
         Path outVm = outputVmPathFor(jackFile);
+        stats.output = outVm;
+
+        String key = null;
+        if (cache != null) {
+            long t0 = System.nanoTime();
+            key = cache.key(jackFile);
+            long t1 = System.nanoTime();
+            stats.readNanos += t1 - t0;
+            if (cache.restore(key, outVm)) {
+                stats.writeNanos += System.nanoTime() - t1;
+                stats.cached = true;
+                stats.warnings = cache.warnings(key);
+                stats.bytesWritten = Files.size(outVm);
+                stats.allocatedBytes = BuildReport.allocatedBytes() - allocated;
+                return stats;
+            }
+        }
+
+        if (Files.size(jackFile) < STREAM_THRESHOLD) {
+            long t0 = System.nanoTime();
+            ByteBuffer source = JackTokenizer.read(jackFile);
+            long t1 = System.nanoTime();
+            JackTokenizer tokenizer = new JackTokenizer(source);
+            stats.readNanos += t1 - t0;
+            stats.tokenizeNanos += System.nanoTime() - t1;
+            compile(tokenizer, options, outVm, stats);
+        } else {
+            // too large to lex up front: stream it through the tokenizer's bounded buffer
+            try (FileChannel in = FileChannel.open(jackFile, StandardOpenOption.READ)) {
+                compile(new JackTokenizer(in), options, outVm, stats);
+            }
+        }
 
-        JackTokenizer tokenizer = new JackTokenizer(jackFile);
-        try (VMWriter vm = new VMWriter(outVm)) {
-            CompilationEngine engine = new CompilationEngine(tokenizer, vm);
+        if (cache != null) {
+            long t0 = System.nanoTime();
+            cache.store(key, outVm, stats.warnings);
+            stats.writeNanos += System.nanoTime() - t0;
+        }
+        stats.allocatedBytes = BuildReport.allocatedBytes() - allocated;
+        return stats;
+    }
+
+    /**
+     * Compiles the tokens into outVm, recording codegen and write time and the counts.
+     */
+    private static void compile(JackTokenizer tokenizer, CompilerOptions options, Path outVm,
+        BuildReport.FileStats stats) throws IOException {
+        long t0 = System.nanoTime();
+        VMWriter vm = new VMWriter(outVm);
+        try (vm) {
+            CompilationEngine engine = new CompilationEngine(tokenizer, vm, options);
             engine.compileClass();
+            stats.warnings = engine.warnings();
         }
+        long elapsed = System.nanoTime() - t0;
+        stats.writeNanos += vm.writeNanos();
+        stats.codegenNanos += elapsed - vm.writeNanos();
+        stats.tokens = tokenizer.tokenCount();
+        stats.instructions = vm.commandCount();
+        stats.bytesWritten = vm.bytesWritten();
+    }
 
-        System.out.println("Wrote: " + outVm);
+    private static CompilationEngine compileToMemory(Path jackFile, CompilerOptions options)
+        throws IOException {
+        if (Files.size(jackFile) < STREAM_THRESHOLD) {
+            CompilationEngine engine = new CompilationEngine(new JackTokenizer(jackFile), options);
+            engine.compileClass();
+            return engine;
+        }
+        try (FileChannel in = FileChannel.open(jackFile, StandardOpenOption.READ)) {
+            CompilationEngine engine = new CompilationEngine(new JackTokenizer(in), options);
+            engine.compileClass();
+            return engine;
+        }
     }
 
     private static Path outputVmPathFor(Path jackFile) {
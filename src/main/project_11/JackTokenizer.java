@@ -1,164 +1,384 @@
 package main.project_11;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.file.StandardOpenOption;
 
 public class JackTokenizer {
 
-    private static final Set<String> KEYWORDS;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
 
-    static {
-        Set<String> kw = new HashSet<>(Arrays.asList(
-            "class", "constructor", "function", "method", "field", "static",
-            "var", "int", "char", "boolean", "void", "true", "false", "null", "this",
-            "let", "do", "if", "else", "while", "return"
-        ));
-        KEYWORDS = Collections.unmodifiableSet(kw);
-    }
+    private static final Keyword[] KEYWORDS = Keyword.values();
+
+    // Files of at least this many bytes are memory-mapped instead of read onto the heap
+    private static final long MAP_THRESHOLD = 1L << 20;
 
-    // Jack symbol set (single-character tokens)
-    private static final String SYMBOLS = "{}()[].,;+-*/&|<>=~";
+    // Jack source runs at about one token per 5 to 9 bytes; larger files start from the cap and
+    // let the TokenStream grow, so a mapped file is not matched by a heap array of its own size
+    private static final int BYTES_PER_TOKEN = 8;
+    private static final int MAX_INITIAL_TOKENS = 1 << 16;
 
-    private final String input;
+    // Raw UTF-8 source, scanned byte by byte with absolute indexes. Holds the whole file, or
+    // when streaming a fixed-size window that is refilled from the channel.
+    private final ByteBuffer input;
+    private int limit;
     private int pos = 0;
+    private int base = 0; // source offset of input[0], for error messages
+
+    // Streaming only: the source of further bytes
+    private final ReadableByteChannel channel;
+    private boolean eof = false;
+
+    // Start of the token being scanned, or -1 between tokens
+    private int tokenStart = -1;
+    // Byte width of the character last returned by peekChar()
+    private int width = 1;
+
+    // Whole file is lexed up front and walked by index; null when streaming
+    private final TokenStream tokens;
+    private int current = -1;
 
-    private String currentToken = null;
+    // Current token; text is only decoded from [currentStart, currentEnd) on request
     private TokenType currentType = null;
+    private int currentStart;
+    private int currentEnd;
+    private int currentValue;
+
+    // Tokens scanned so far; all of them once a pre-lexing constructor returns
+    private int scanned = 0;
 
     public JackTokenizer(Path jackFile) throws IOException {
-        byte[] bytes = Files.readAllBytes(jackFile);
-        this.input = new String(bytes, StandardCharsets.UTF_8);
+        this(read(jackFile));
+    }
+
+    /**
+     * Tokenizes UTF-8 encoded Jack source held in the buffer's [0, limit) range.
+     */
+    public JackTokenizer(ByteBuffer source) {
+        this.input = source;
+        this.limit = source.limit();
+        this.channel = null;
+        this.tokens = new TokenStream(Math.min(limit / BYTES_PER_TOKEN, MAX_INITIAL_TOKENS));
+        lex();
+    }
+
+    /**
+     * Tokenizes UTF-8 encoded Jack source read from the channel on demand, through a buffer of
+     * bufferSize bytes. Memory use stays bounded by the buffer; a single token must fit in it.
+     * The caller remains responsible for closing the channel.
+     */
+    public JackTokenizer(ReadableByteChannel channel, int bufferSize) {
+        if (bufferSize < 16) {
+            throw new IllegalArgumentException("Buffer size too small: " + bufferSize);
+        }
+        this.input = ByteBuffer.allocate(bufferSize);
+        this.limit = 0;
+        this.channel = channel;
+        this.tokens = null;
+    }
+
+    public JackTokenizer(ReadableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public JackTokenizer(InputStream in) {
+        this(Channels.newChannel(in));
     }
 
     /**
      * Are there more tokens in the input?
      */
     public boolean hasMoreTokens() {
+        if (tokens != null) {
+            return current + 1 < tokens.size();
+        }
         skipIgnorables();
-        return pos < input.length();
+        return ensure(0);
     }
 
     /**
      * Advances to the next token and makes it the current token.
      */
     public void advance() {
-        skipIgnorables();
-        if (pos >= input.length()) {
-            currentToken = null;
-            currentType = null;
+        if (tokens != null) {
+            if (current < tokens.size()) {
+                current++;
+            }
+            if (current < tokens.size()) {
+                currentType = tokens.type(current);
+                currentStart = tokens.start(current);
+                currentEnd = tokens.end(current);
+                currentValue = tokens.value(current);
+            } else {
+                currentType = null;
+            }
             return;
         }
 
-        char c = input.charAt(pos);
+        // streaming: the old token's bytes may be dropped from now on
+        currentType = null;
+        skipIgnorables();
+        if (ensure(0)) {
+            scanToken();
+        }
+    }
+
+    public TokenType tokenType() {
+        ensureCurrent();
+        return currentType;
+    }
+
+    public Keyword keyword() {
+        ensureType(TokenType.KEYWORD);
+        return KEYWORDS[currentValue];
+    }
+
+    public char symbol() {
+        ensureType(TokenType.SYMBOL);
+        return (char) currentValue;
+    }
+
+    public String identifier() {
+        ensureType(TokenType.IDENTIFIER);
+        return text(currentStart, currentEnd);
+    }
+
+    public int intVal() {
+        ensureType(TokenType.INT_CONST);
+        return currentValue;
+    }
+
+    public String stringVal() {
+        ensureType(TokenType.STRING_CONST);
+        return text(currentStart, currentEnd);
+    }
+
+    /**
+     * Convenience: raw token string (for engine logic).
+     */
+    public String token() {
+        ensureCurrent();
+        switch (currentType) {
+            case KEYWORD:
+                return KEYWORDS[currentValue].text();
+            case SYMBOL:
+                return String.valueOf((char) currentValue);
+            default:
+                return text(currentStart, currentEnd);
+        }
+    }
+
+    /**
+     * Number of tokens scanned: the whole file's when it was lexed up front, otherwise the
+     * number of tokens streamed so far.
+     */
+    public int tokenCount() {
+        return scanned;
+    }
+
+    /**
+     * Index of the current token in the source, counting from 0; -1 before the first advance().
+     */
+    public int tokenIndex() {
+        return (tokens != null) ? Math.min(current, tokens.size()) : scanned - 1;
+    }
+
+    // ----------------- lexer -----------------
+
+    private void lex() {
+        while (true) {
+            skipIgnorables();
+            if (!ensure(0)) {
+                break;
+            }
+            scanToken();
+            tokens.add(currentType, currentStart, currentEnd, currentValue);
+        }
+        currentType = null;
+    }
+
+    /**
+     * Scans the token at pos into the current token.
+     */
+    private void scanToken() {
+        scanned++;
+        int c = peekChar();
 
         // String constant
         if (c == '"') {
             pos++; // skip opening "
-            int start = pos;
-            while (pos < input.length()) {
-                char ch = input.charAt(pos);
+            tokenStart = pos;
+            while (true) {
+                if (!ensure(0)) {
+                    throw new IllegalStateException("Unterminated string constant");
+                }
+                int ch = peekChar();
                 if (ch == '"') {
                     break;
                 }
                 if (ch == '\n' || ch == '\r') {
                     throw new IllegalStateException("Unterminated string constant");
                 }
-                pos++;
+                pos += width;
             }
-            if (pos >= input.length()) {
-                throw new IllegalStateException("Unterminated string constant");
-            }
-            currentToken = input.substring(start, pos); // without quotes
-            currentType = TokenType.STRING_CONST;
+            setCurrent(TokenType.STRING_CONST, 0); // without quotes
             pos++; // skip closing "
             return;
         }
 
         // Symbol
-        if (isSymbolChar(c)) {
-            currentToken = String.valueOf(c);
-            currentType = TokenType.SYMBOL;
+        if (CharClass.isSymbol(c)) {
+            tokenStart = pos;
             pos++;
+            setCurrent(TokenType.SYMBOL, c);
             return;
         }
 
         // Integer constant
-        if (Character.isDigit(c)) {
-            int start = pos;
-            while (pos < input.length() && Character.isDigit(input.charAt(pos))) {
-                pos++;
+        if (CharClass.isDigit(c)) {
+            tokenStart = pos;
+            long value = 0;
+            while (ensure(0) && CharClass.isDigit(c = peekChar())) {
+                value = value * 10 + Character.digit(c, 10);
+                if (value > Integer.MAX_VALUE) {
+                    throw new NumberFormatException(
+                        "Integer constant too large at pos " + (base + tokenStart));
+                }
+                pos += width;
             }
-            currentToken = input.substring(start, pos);
-            currentType = TokenType.INT_CONST;
+            setCurrent(TokenType.INT_CONST, (int) value);
             return;
         }
 
         // Identifier or keyword
-        if (isIdentifierStart(c)) {
-            int start = pos;
-            while (pos < input.length() && isIdentifierPart(input.charAt(pos))) {
-                pos++;
+        if (CharClass.isIdentifierStart(c)) {
+            tokenStart = pos;
+            while (ensure(0) && CharClass.isIdentifierPart(peekChar())) {
+                pos += width;
             }
-            currentToken = input.substring(start, pos);
-            if (KEYWORDS.contains(currentToken)) {
-                currentType = TokenType.KEYWORD;
+            Keyword kw = keywordAt(tokenStart, pos);
+            if (kw != null) {
+                setCurrent(TokenType.KEYWORD, kw.ordinal());
             } else {
-                currentType = TokenType.IDENTIFIER;
+                setCurrent(TokenType.IDENTIFIER, 0);
             }
             return;
         }
 
-        throw new IllegalStateException("Unexpected character at pos " + pos + ": '" + c + "'");
-    }
-
-    public TokenType tokenType() {
-        ensureCurrent();
-        return currentType;
-    }
-
-    public String keyword() {
-        ensureType(TokenType.KEYWORD);
-        return currentToken;
+        throw new IllegalStateException(
+            "Unexpected character at pos " + (base + pos) + ": '" + Character.toString(c) + "'");
     }
 
-    public char symbol() {
-        ensureType(TokenType.SYMBOL);
-        return currentToken.charAt(0);
+    private void setCurrent(TokenType type, int value) {
+        currentType = type;
+        currentStart = tokenStart;
+        currentEnd = pos;
+        currentValue = value;
+        tokenStart = -1;
     }
 
-    public String identifier() {
-        ensureType(TokenType.IDENTIFIER);
-        return currentToken;
+    /**
+     * Keyword spelled by bytes [start, end), or null. The first character and the length narrow
+     * it down to a single candidate, which is then compared in full.
+     */
+    private Keyword keywordAt(int start, int end) {
+        int len = end - start;
+        Keyword candidate;
+        switch (input.get(start)) {
+            case 'b':
+                candidate = Keyword.BOOLEAN;
+                break;
+            case 'c':
+                candidate = (len == 5) ? Keyword.CLASS
+                    : (len == 4) ? Keyword.CHAR : Keyword.CONSTRUCTOR;
+                break;
+            case 'd':
+                candidate = Keyword.DO;
+                break;
+            case 'e':
+                candidate = Keyword.ELSE;
+                break;
+            case 'f':
+                if (len == 8) {
+                    candidate = Keyword.FUNCTION;
+                } else if (len == 5) {
+                    candidate = (input.get(start + 1) == 'i') ? Keyword.FIELD : Keyword.FALSE;
+                } else {
+                    return null;
+                }
+                break;
+            case 'i':
+                candidate = (len == 3) ? Keyword.INT : Keyword.IF;
+                break;
+            case 'l':
+                candidate = Keyword.LET;
+                break;
+            case 'm':
+                candidate = Keyword.METHOD;
+                break;
+            case 'n':
+                candidate = Keyword.NULL;
+                break;
+            case 'r':
+                candidate = Keyword.RETURN;
+                break;
+            case 's':
+                candidate = Keyword.STATIC;
+                break;
+            case 't':
+                if (len != 4) {
+                    return null;
+                }
+                candidate = (input.get(start + 1) == 'r') ? Keyword.TRUE : Keyword.THIS;
+                break;
+            case 'v':
+                candidate = (len == 3) ? Keyword.VAR : Keyword.VOID;
+                break;
+            case 'w':
+                candidate = Keyword.WHILE;
+                break;
+            default:
+                return null;
+        }
+        String text = candidate.text();
+        return (text.length() == len && matches(text, start)) ? candidate : null;
     }
 
-    public int intVal() {
-        ensureType(TokenType.INT_CONST);
-        return Integer.parseInt(currentToken);
+    private boolean matches(String ascii, int start) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (input.get(start + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    public String stringVal() {
-        ensureType(TokenType.STRING_CONST);
-        return currentToken;
-    }
+    // ----------------- helpers -----------------
 
     /**
-     * Convenience: raw token string (for engine logic).
+     * Reads a source file for the ByteBuffer constructor. Large files are memory-mapped, so
+     * their pages are only read in as they are tokenized.
      */
-    public String token() {
-        ensureCurrent();
-        return currentToken;
+    public static ByteBuffer read(Path jackFile) throws IOException {
+        try (FileChannel ch = FileChannel.open(jackFile, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size >= MAP_THRESHOLD) {
+                return ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+        return ByteBuffer.wrap(Files.readAllBytes(jackFile));
     }
 
-    // ----------------- helpers -----------------
-
     private void ensureCurrent() {
-        if (currentType == null || currentToken == null) {
+        if (currentType == null) {
             throw new IllegalStateException("No current token (did you call advance()?)");
         }
     }
@@ -167,20 +387,118 @@ public class JackTokenizer {
         ensureCurrent();
         if (currentType != t) {
             throw new IllegalStateException(
-                "Expected " + t + " but got " + currentType + " token=" + currentToken);
+                "Expected " + t + " but got " + currentType + " token=" + token());
+        }
+    }
+
+    /**
+     * Returns the character at pos and sets width to its length in bytes. ASCII bytes are
+     * returned directly; only a non-ASCII byte falls back to decoding the UTF-8 sequence it
+     * starts. Malformed or truncated sequences decode to U+FFFD, one byte at a time, like String.
+     */
+    private int peekChar() {
+        byte b = input.get(pos);
+        width = 1;
+        if (b >= 0) {
+            return b;
+        }
+        int lead = b & 0xFF;
+        int n;
+        if (lead >= 0xF0 && lead <= 0xF4) {
+            n = 4;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            n = 3;
+        } else if (lead >= 0xC2 && lead < 0xE0) {
+            n = 2;
+        } else {
+            return 0xFFFD;
+        }
+        if (!ensure(n - 1)) {
+            return 0xFFFD;
+        }
+        int cp = input.get(pos) & (0x7F >> n);
+        for (int k = 1; k < n; k++) {
+            byte cont = input.get(pos + k);
+            if ((cont & 0xC0) != 0x80) {
+                return 0xFFFD;
+            }
+            cp = (cp << 6) | (cont & 0x3F);
         }
+        width = n;
+        return cp;
     }
 
-    private boolean isSymbolChar(char c) {
-        return SYMBOLS.indexOf(c) >= 0;
+    /**
+     * Is the byte at pos + ahead available? Streaming tokenizers refill the buffer as needed,
+     * which may move pos, tokenStart and the current token within it.
+     */
+    private boolean ensure(int ahead) {
+        return pos + ahead < limit || refill(ahead);
     }
 
-    private boolean isIdentifierStart(char c) {
-        return Character.isLetter(c) || c == '_';
+    private boolean refill(int ahead) {
+        if (channel == null) {
+            return false;
+        }
+        while (pos + ahead >= limit) {
+            if (eof) {
+                return false;
+            }
+            if (limit == input.capacity()) {
+                compact();
+                if (limit == input.capacity()) {
+                    throw new IllegalStateException("Token at pos " + (base + tokenStart)
+                        + " does not fit the " + input.capacity() + "-byte buffer");
+                }
+            }
+            input.limit(input.capacity()).position(limit);
+            try {
+                int n = channel.read(input);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    limit += n;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops consumed bytes from the buffer. Keeps the current token's text, which can still be
+     * queried, followed by everything from the token being scanned (or pos) onwards.
+     */
+    private void compact() {
+        byte[] buf = input.array();
+        int keep = (tokenStart >= 0) ? tokenStart : pos;
+        int dst = 0;
+        if (currentType != null) {
+            int len = currentEnd - currentStart;
+            System.arraycopy(buf, currentStart, buf, 0, len);
+            currentStart = 0;
+            currentEnd = len;
+            dst = len;
+        }
+        int shift = keep - dst;
+        System.arraycopy(buf, keep, buf, dst, limit - keep);
+        limit -= shift;
+        pos -= shift;
+        base += shift;
+        if (tokenStart >= 0) {
+            tokenStart -= shift;
+        }
     }
 
-    private boolean isIdentifierPart(char c) {
-        return Character.isLetterOrDigit(c) || c == '_';
+    private String text(int start, int end) {
+        if (input.hasArray()) {
+            return new String(input.array(), input.arrayOffset() + start, end - start,
+                StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[end - start];
+        input.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
     /**
@@ -188,24 +506,24 @@ public class JackTokenizer {
      * comment *\/
      */
     private void skipIgnorables() {
-        while (pos < input.length()) {
-            char c = input.charAt(pos);
+        while (ensure(0)) {
+            int c = peekChar();
 
             // whitespace
-            if (Character.isWhitespace(c)) {
-                pos++;
+            if (CharClass.isWhitespace(c)) {
+                pos += width;
                 continue;
             }
 
             // comments?
-            if (c == '/' && pos + 1 < input.length()) {
-                char n = input.charAt(pos + 1);
+            if (c == '/' && ensure(1)) {
+                int n = input.get(pos + 1);
 
                 // line comment //
                 if (n == '/') {
                     pos += 2;
-                    while (pos < input.length()) {
-                        char ch = input.charAt(pos);
+                    while (ensure(0)) {
+                        byte ch = input.get(pos);
                         if (ch == '\n' || ch == '\r') {
                             break;
                         }
@@ -217,8 +535,8 @@ public class JackTokenizer {
                 // block comment /* ... */
                 if (n == '*') {
                     pos += 2;
-                    while (pos + 1 < input.length()) {
-                        if (input.charAt(pos) == '*' && input.charAt(pos + 1) == '/') {
+                    while (ensure(1)) {
+                        if (input.get(pos) == '*' && input.get(pos + 1) == '/') {
                             pos += 2;
                             break;
                         }
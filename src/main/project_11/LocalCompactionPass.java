@@ -0,0 +1,83 @@
+package main.project_11;
+
+import java.util.BitSet;
+
+/**
+ * Lets locals whose values are never needed at the same time share a slot, and lowers the
+ * function's nLocals to the number of slots left, using LocalLiveness over the flow graph.
+ * <p>
+ * Two locals conflict if one is written while the other is live. Every slot starts out as 0,
+ * so a local read before it is written still reads 0 from a shared slot: nothing else writes
+ * to the slot while that local is live. Slots are assigned greedily in declaration order, and
+ * locals that are never used get none.
+ */
+public class LocalCompactionPass implements Pass {
+
+    @Override
+    public void apply(VMCode code) {
+        long header = code.get(0);
+        int nLocals = VMCode.index(header);
+        if (nLocals == 0) {
+            return;
+        }
+
+        FlowGraph graph = new FlowGraph(code);
+        LocalLiveness liveness = new LocalLiveness(code, graph);
+
+        BitSet[] conflicts = new BitSet[nLocals];
+        for (int l = 0; l < nLocals; l++) {
+            conflicts[l] = new BitSet(nLocals);
+        }
+        BitSet used = new BitSet(nLocals);
+        for (int b = 0; b < graph.size(); b++) {
+            BitSet live = (BitSet) liveness.liveOut(b).clone();
+            for (int i = graph.end(b) - 1; i >= graph.start(b); i--) {
+                long insn = code.get(i);
+                if (isLocal(insn, Opcode.POP)) {
+                    int def = VMCode.index(insn);
+                    for (int l = live.nextSetBit(0); l >= 0; l = live.nextSetBit(l + 1)) {
+                        if (l != def) {
+                            conflicts[def].set(l);
+                            conflicts[l].set(def);
+                        }
+                    }
+                    live.clear(def);
+                    used.set(def);
+                } else if (isLocal(insn, Opcode.PUSH)) {
+                    live.set(VMCode.index(insn));
+                    used.set(VMCode.index(insn));
+                }
+            }
+        }
+
+        int[] slot = new int[nLocals];
+        int slots = 0;
+        for (int l = used.nextSetBit(0); l >= 0; l = used.nextSetBit(l + 1)) {
+            BitSet taken = new BitSet();
+            for (int c = conflicts[l].nextSetBit(0); c >= 0; c = conflicts[l].nextSetBit(c + 1)) {
+                if (c < l && used.get(c)) {
+                    taken.set(slot[c]);
+                }
+            }
+            slot[l] = taken.nextClearBit(0);
+            slots = Math.max(slots, slot[l] + 1);
+        }
+        if (slots == nLocals) {
+            return;
+        }
+
+        code.set(0, VMCode.encode(Opcode.FUNCTION, VMCode.nameId(header), slots));
+        for (int i = 1; i < code.size(); i++) {
+            long insn = code.get(i);
+            if (isLocal(insn, Opcode.PUSH) || isLocal(insn, Opcode.POP)) {
+                code.set(i, VMCode.encode(VMCode.opcode(insn), Segment.LOCAL,
+                    slot[VMCode.index(insn)]));
+            }
+        }
+    }
+
+    private static boolean isLocal(long insn, Opcode op) {
+        return LocalLiveness.isLocal(insn, op);
+    }
+
+}
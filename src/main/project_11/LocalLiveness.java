@@ -0,0 +1,74 @@
+package main.project_11;
+
+import java.util.BitSet;
+
+/**
+ * Which locals are live (may still be read before being written) at the start and end of
+ * each basic block of a subroutine. Locals are only reachable through push/pop local, so the
+ * analysis sees every access.
+ */
+public class LocalLiveness {
+
+    private final BitSet[] liveIn;
+    private final BitSet[] liveOut;
+
+    public LocalLiveness(VMCode code, FlowGraph graph) {
+        int nLocals = VMCode.index(code.get(0));
+        int blocks = graph.size();
+        liveIn = new BitSet[blocks];
+        liveOut = new BitSet[blocks];
+        BitSet[] uses = new BitSet[blocks];
+        BitSet[] defs = new BitSet[blocks];
+        for (int b = 0; b < blocks; b++) {
+            liveIn[b] = new BitSet(nLocals);
+            liveOut[b] = new BitSet(nLocals);
+            uses[b] = new BitSet(nLocals);
+            defs[b] = new BitSet(nLocals);
+            for (int i = graph.end(b) - 1; i >= graph.start(b); i--) {
+                long insn = code.get(i);
+                if (isLocal(insn, Opcode.POP)) {
+                    uses[b].clear(VMCode.index(insn));
+                    defs[b].set(VMCode.index(insn));
+                } else if (isLocal(insn, Opcode.PUSH)) {
+                    uses[b].set(VMCode.index(insn));
+                }
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = blocks - 1; b >= 0; b--) {
+                for (int s : graph.successors(b)) {
+                    liveOut[b].or(liveIn[s]);
+                }
+                BitSet in = (BitSet) liveOut[b].clone();
+                in.andNot(defs[b]);
+                in.or(uses[b]);
+                if (!in.equals(liveIn[b])) {
+                    liveIn[b] = in;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * The locals live at the start of block b. Not to be modified.
+     */
+    public BitSet liveIn(int b) {
+        return liveIn[b];
+    }
+
+    /**
+     * The locals live at the end of block b. Not to be modified.
+     */
+    public BitSet liveOut(int b) {
+        return liveOut[b];
+    }
+
+    static boolean isLocal(long insn, Opcode op) {
+        return VMCode.opcode(insn) == op && VMCode.segment(insn) == Segment.LOCAL;
+    }
+
+}
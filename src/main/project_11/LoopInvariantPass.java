@@ -0,0 +1,331 @@
+package main.project_11;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves computations whose value is the same in every iteration of a while loop in front of
+ * the loop, into new locals. Loops have the rotated form CompilationEngine emits from -O1 on:
+ * "goto E; label B; body; label E; condition; if-goto B", so code placed before the goto runs
+ * once on entry. Loops are done innermost first; what leaves an inner loop may then leave the
+ * outer one too.
+ * <p>
+ * What the loop writes is read off its pops, which covers let targets, array stores and the
+ * code of inlined calls. A value is invariant if it only reads constants and locations the
+ * loop does not write: locals, arguments and pointers; this and static only when the loop
+ * also makes no calls (other than to the Math functions in SAFE) and, for this, writes
+ * neither pointer 0 nor this or that. that is never invariant. temp is only used as scratch
+ * within a computation (such as an inlined multiplication by a constant), so a read of temp
+ * counts as the value last popped into it, and a computation may move if it includes that pop.
+ * <p>
+ * A moved computation also runs when the loop body would not have reached it, so it must not
+ * be able to fail or have effects: Math.divide and Math.sqrt stay where they are.
+ */
+public class LoopInvariantPass implements Pass {
+
+    private static final Set<String> SAFE = Set.of(
+        "Math.multiply", "Math.min", "Math.max", "Math.abs");
+
+    private static final int TEMPS = 8;
+
+    /**
+     * A value on the symbolic stack, computed by code[start, end). It is clean if that range
+     * computes nothing else. reads is the earliest pop into temp it reads, if any.
+     */
+    private static final class Value {
+
+        final int start;
+        final int end;
+        final boolean clean;
+        final boolean invariant;
+        final int reads;
+
+        Value(int start, int end, boolean clean, boolean invariant, int reads) {
+            this.start = start;
+            this.end = end;
+            this.clean = clean;
+            this.invariant = invariant;
+            this.reads = reads;
+        }
+    }
+
+    // What the current loop writes
+    private final Set<Long> written = new HashSet<>();
+    private boolean calls;
+    private boolean thisWritten;
+
+    // Per block: last value popped into each temp and where, or null
+    private final Value[] temps = new Value[TEMPS];
+    private final int[] tempPops = new int[TEMPS];
+
+    @Override
+    public void apply(VMCode code) {
+        Set<Integer> done = new HashSet<>();
+        int[] loop;
+        while ((loop = innermostLoop(code, done)) != null) {
+            done.add(VMCode.nameId(code.get(loop[0])));
+            if (enteredOnlyAtTop(code, loop[0], loop[1])) {
+                hoist(code, loop[0], loop[1]);
+            }
+        }
+    }
+
+    /**
+     * The smallest loop not done yet, as the indexes of its "label B" and "if-goto B", or null.
+     */
+    private static int[] innermostLoop(VMCode code, Set<Integer> done) {
+        Map<Integer, Integer> labels = new HashMap<>();
+        for (int i = 1; i < code.size(); i++) {
+            if (VMCode.opcode(code.get(i)) == Opcode.LABEL) {
+                labels.put(VMCode.nameId(code.get(i)), i);
+            }
+        }
+
+        int[] best = null;
+        for (int i = 1; i < code.size(); i++) {
+            long insn = code.get(i);
+            if (VMCode.opcode(insn) != Opcode.IF_GOTO || done.contains(VMCode.nameId(insn))) {
+                continue;
+            }
+            Integer body = labels.get(VMCode.nameId(insn));
+            if (body == null || body >= i || VMCode.opcode(code.get(body - 1)) != Opcode.GOTO) {
+                continue;
+            }
+            Integer test = labels.get(VMCode.nameId(code.get(body - 1)));
+            if (test == null || test <= body || test > i) {
+                continue;
+            }
+            if (best == null || i - body < best[1] - best[0]) {
+                best = new int[] {body, i};
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Whether no jump from outside code[from, to] leads into it, other than the goto just
+     * before it.
+     */
+    private static boolean enteredOnlyAtTop(VMCode code, int from, int to) {
+        Set<Integer> inside = new HashSet<>();
+        for (int i = from; i <= to; i++) {
+            if (VMCode.opcode(code.get(i)) == Opcode.LABEL) {
+                inside.add(VMCode.nameId(code.get(i)));
+            }
+        }
+        for (int i = 1; i < code.size(); i++) {
+            Opcode op = VMCode.opcode(code.get(i));
+            if ((op == Opcode.GOTO || op == Opcode.IF_GOTO) && (i < from - 1 || i > to)
+                && inside.contains(VMCode.nameId(code.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the invariant computations of the loop code[from, to] in front of it.
+     */
+    private void hoist(VMCode code, int from, int to) {
+        written.clear();
+        calls = false;
+        thisWritten = false;
+        for (int i = from; i <= to; i++) {
+            long insn = code.get(i);
+            Opcode op = VMCode.opcode(insn);
+            if (op == Opcode.POP) {
+                Segment segment = VMCode.segment(insn);
+                written.add(operand(insn));
+                if (segment == Segment.THIS || segment == Segment.THAT
+                    || insn == VMCode.encode(Opcode.POP, Segment.POINTER, 0)) {
+                    thisWritten = true;
+                }
+            } else if (op == Opcode.CALL && !SAFE.contains(code.name(VMCode.nameId(insn)))) {
+                calls = true;
+            }
+        }
+
+        // largest invariant computations, in order; nested ones are dropped as they are found
+        List<int[]> moves = new ArrayList<>();
+        List<Value> stack = new ArrayList<>();
+        Arrays.fill(temps, null);
+        for (int i = from; i <= to; i++) {
+            long insn = code.get(i);
+            Opcode op = VMCode.opcode(insn);
+            switch (op) {
+                case LABEL:
+                    stack.clear();
+                    Arrays.fill(temps, null);
+                    break;
+                case PUSH:
+                    if (VMCode.segment(insn) == Segment.TEMP) {
+                        stack.add(readTemp(VMCode.index(insn), i));
+                    } else {
+                        stack.add(new Value(i, i + 1, true, isInvariant(insn), i + 1));
+                    }
+                    break;
+                case POP:
+                    Value value = pop(stack);
+                    if (VMCode.segment(insn) == Segment.TEMP) {
+                        temps[VMCode.index(insn)] = value;
+                        tempPops[VMCode.index(insn)] = i;
+                    }
+                    break;
+                case IF_GOTO:
+                case RETURN:
+                    pop(stack);
+                    break;
+                case GOTO:
+                    break;
+                case CALL:
+                    int nArgs = VMCode.index(insn);
+                    boolean safe = SAFE.contains(code.name(VMCode.nameId(insn))) && nArgs > 0;
+                    combine(stack, nArgs, safe, i, moves);
+                    // the callee may use temp too
+                    Arrays.fill(temps, null);
+                    break;
+                default:
+                    boolean unary = op == Opcode.NEG || op == Opcode.NOT;
+                    combine(stack, unary ? 1 : 2, true, i, moves);
+                    break;
+            }
+        }
+        if (moves.isEmpty()) {
+            return;
+        }
+
+        // one new local per distinct computation
+        long header = code.get(0);
+        int nLocals = VMCode.index(header);
+        Map<List<Long>, Integer> slots = new HashMap<>();
+        List<List<Long>> hoisted = new ArrayList<>();
+        int[] slotOf = new int[moves.size()];
+        for (int m = 0; m < moves.size(); m++) {
+            List<Long> insns = new ArrayList<>();
+            for (int i = moves.get(m)[0]; i < moves.get(m)[1]; i++) {
+                insns.add(code.get(i));
+            }
+            Integer slot = slots.get(insns);
+            if (slot == null) {
+                slot = nLocals + slots.size();
+                slots.put(insns, slot);
+                hoisted.add(insns);
+            }
+            slotOf[m] = slot;
+        }
+
+        VMCode result = code.copy();
+        result.clear();
+        result.add(VMCode.encode(Opcode.FUNCTION, VMCode.nameId(header), nLocals + slots.size()));
+        int next = 0;
+        for (int i = 1; i < code.size(); ) {
+            if (i == from - 1) {
+                for (List<Long> insns : hoisted) {
+                    for (long insn : insns) {
+                        result.add(insn);
+                    }
+                    result.pop(Segment.LOCAL, slots.get(insns));
+                }
+            }
+            if (next < moves.size() && moves.get(next)[0] == i) {
+                result.push(Segment.LOCAL, slotOf[next]);
+                i = moves.get(next++)[1];
+                continue;
+            }
+            result.add(code.get(i));
+            i++;
+        }
+
+        code.clear();
+        for (int i = 0; i < result.size(); i++) {
+            code.add(result.get(i));
+        }
+    }
+
+    /**
+     * Replaces the top n values by the result of an operation on them at code[i], and notes
+     * it as a move if it is invariant.
+     */
+    private void combine(List<Value> stack, int n, boolean pure, int i, List<int[]> moves) {
+        boolean clean = true;
+        boolean invariant = pure;
+        int end = i;
+        int start = i;
+        int reads = i + 1;
+        for (int k = 0; k < n; k++) {
+            Value value = pop(stack);
+            clean &= value.clean && value.end == end;
+            invariant &= value.invariant;
+            reads = Math.min(reads, value.reads);
+            end = value.start;
+            start = value.start;
+        }
+        if (n == 0) {
+            invariant = false;
+        }
+        invariant &= clean;
+        if (invariant && reads >= start) {
+            while (!moves.isEmpty() && moves.get(moves.size() - 1)[0] >= start) {
+                moves.remove(moves.size() - 1);
+            }
+            moves.add(new int[] {start, i + 1});
+        }
+        stack.add(new Value(start, i + 1, clean, invariant, reads));
+    }
+
+    /**
+     * The value of a push temp at code[i]. Right after the pop into the temp, the pop and
+     * push only pass the popped value through, so they count as part of its computation.
+     */
+    private Value readTemp(int index, int i) {
+        Value value = temps[index];
+        if (value == null) {
+            return new Value(i, i + 1, true, false, i + 1);
+        }
+        int pop = tempPops[index];
+        if (pop == i - 1 && value.clean && value.end == pop) {
+            return new Value(value.start, i + 1, true, value.invariant, value.reads);
+        }
+        return new Value(i, i + 1, true, value.invariant, pop);
+    }
+
+    private boolean isInvariant(long insn) {
+        if (written.contains(operand(insn))) {
+            return false;
+        }
+        switch (VMCode.segment(insn)) {
+            case CONSTANT:
+            case LOCAL:
+            case ARGUMENT:
+            case POINTER:
+                return true;
+            case STATIC:
+                return !calls;
+            case THIS:
+                return !calls && !thisWritten;
+            default:
+                return false;
+        }
+    }
+
+    private static Value pop(List<Value> stack) {
+        if (stack.isEmpty()) {
+            // pushed before the block
+            return new Value(-1, -1, false, false, -1);
+        }
+        return stack.remove(stack.size() - 1);
+    }
+
+    /**
+     * Segment and index of a push/pop, index in the low bits for the sake of hashing.
+     */
+    private static long operand(long insn) {
+        return ((long) VMCode.segment(insn).ordinal() << 32) | VMCode.index(insn);
+    }
+
+}
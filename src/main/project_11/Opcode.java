@@ -0,0 +1,39 @@
+package main.project_11;
+
+public enum Opcode {
+    PUSH("push"),
+    POP("pop"),
+    ADD("add"),
+    SUB("sub"),
+    NEG("neg"),
+    EQ("eq"),
+    GT("gt"),
+    LT("lt"),
+    AND("and"),
+    OR("or"),
+    NOT("not"),
+    LABEL("label"),
+    GOTO("goto"),
+    IF_GOTO("if-goto"),
+    CALL("call"),
+    FUNCTION("function"),
+    RETURN("return");
+
+    private final String text;
+
+    Opcode(String text) {
+        this.text = text;
+    }
+
+    public String text() {
+        return text;
+    }
+
+    /**
+     * Is this one of the stack arithmetic / logical commands, which take no operands?
+     */
+    public boolean isArithmetic() {
+        return compareTo(ADD) >= 0 && compareTo(NOT) <= 0;
+    }
+
+}
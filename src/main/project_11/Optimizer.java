@@ -0,0 +1,51 @@
+package main.project_11;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the passes of an optimization level over each subroutine's code, in order.
+ * -O0 runs none, so the output is exactly what CompilationEngine generated.
+ */
+public class Optimizer {
+
+    public static final int MAX_LEVEL = 2;
+
+    private final List<Pass> passes = new ArrayList<>();
+
+    public Optimizer(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("Unknown optimization level: " + level);
+        }
+        if (level >= 1) {
+            passes.add(new PeepholePass());
+        }
+        if (level >= 2) {
+            passes.add(new TailCallPass());
+            passes.add(new LoopInvariantPass());
+            passes.add(new CommonSubexpressionPass());
+            passes.add(new LocalCompactionPass());
+        }
+    }
+
+    public void optimize(VMCode code) {
+        for (Pass pass : passes) {
+            pass.apply(code);
+        }
+    }
+
+    /**
+     * The passes in the order they run, for cache fingerprints: "PeepholePass,TailCallPass,...".
+     */
+    String passNames() {
+        StringBuilder sb = new StringBuilder();
+        for (Pass pass : passes) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(pass.getClass().getSimpleName());
+        }
+        return sb.toString();
+    }
+
+}
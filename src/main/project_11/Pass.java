@@ -0,0 +1,10 @@
+package main.project_11;
+
+/**
+ * One optimization over the VM code of a subroutine, rewriting it in place.
+ */
+public interface Pass {
+
+    void apply(VMCode code);
+
+}
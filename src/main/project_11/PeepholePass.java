@@ -0,0 +1,202 @@
+package main.project_11;
+
+/**
+ * Rewrites short instruction sequences into cheaper equivalent ones. Instructions are copied
+ * one at a time to the (compacted) output, and after each copy the rules are tried on the tail
+ * of the output until none applies, so a rewrite can enable further rewrites of the code
+ * before it. Code after an unconditional jump or return is dropped up to the next label, and
+ * labels nothing jumps to are dropped. The pass repeats until the code stops shrinking.
+ * <p>
+ * A condition ending in lt or gt keeps its "not; if-goto": the VM has no ge/le to invert it.
+ * temp 0 is only ever used as scratch directly after it is written, so rules may drop writes
+ * to it.
+ */
+public class PeepholePass implements Pass {
+
+    /**
+     * A rewrite of the output's tail. Returns the new output size, or -1 if it does not apply.
+     */
+    private interface Rule {
+
+        int apply(VMCode code, int end, int[] labelRefs);
+    }
+
+    private static final long PUSH_0 = VMCode.encode(Opcode.PUSH, Segment.CONSTANT, 0);
+    private static final long PUSH_1 = VMCode.encode(Opcode.PUSH, Segment.CONSTANT, 1);
+    private static final long POP_TEMP_0 = VMCode.encode(Opcode.POP, Segment.TEMP, 0);
+    private static final long POP_POINTER_1 = VMCode.encode(Opcode.POP, Segment.POINTER, 1);
+    private static final long PUSH_TEMP_0 = VMCode.encode(Opcode.PUSH, Segment.TEMP, 0);
+    private static final long POP_THAT_0 = VMCode.encode(Opcode.POP, Segment.THAT, 0);
+    private static final long NOT = VMCode.encode(Opcode.NOT, 0, 0);
+    private static final long NEG = VMCode.encode(Opcode.NEG, 0, 0);
+    private static final long EQ = VMCode.encode(Opcode.EQ, 0, 0);
+    private static final long SUB = VMCode.encode(Opcode.SUB, 0, 0);
+
+    private static final Rule[] RULES = {
+        // push x; pop x  ->  (nothing)
+        (code, end, refs) -> {
+            if (end >= 2 && op(code, end - 2) == Opcode.PUSH && op(code, end - 1) == Opcode.POP
+                && operand(code.get(end - 2)) == operand(code.get(end - 1))) {
+                return end - 2;
+            }
+            return -1;
+        },
+        // not; not  ->  (nothing), and the same for neg; neg
+        (code, end, refs) -> {
+            if (end >= 2 && code.get(end - 1) == code.get(end - 2)
+                && (code.get(end - 1) == NOT || code.get(end - 1) == NEG)) {
+                return end - 2;
+            }
+            return -1;
+        },
+        // push constant 1; neg  ->  push constant 0; not (true, and foldable by the rules below)
+        (code, end, refs) -> {
+            if (end >= 2 && code.get(end - 2) == PUSH_1 && code.get(end - 1) == NEG) {
+                code.set(end - 2, PUSH_0);
+                code.set(end - 1, NOT);
+                return end;
+            }
+            return -1;
+        },
+        // push constant 0; if-goto L  ->  (nothing)
+        (code, end, refs) -> {
+            if (end >= 2 && code.get(end - 2) == PUSH_0 && op(code, end - 1) == Opcode.IF_GOTO) {
+                refs[VMCode.nameId(code.get(end - 1))]--;
+                return end - 2;
+            }
+            return -1;
+        },
+        // push constant 0; not; if-goto L  ->  goto L
+        (code, end, refs) -> {
+            if (end >= 3 && code.get(end - 3) == PUSH_0 && code.get(end - 2) == NOT
+                && op(code, end - 1) == Opcode.IF_GOTO) {
+                code.set(end - 3, VMCode.encode(Opcode.GOTO, VMCode.nameId(code.get(end - 1)), 0));
+                return end - 2;
+            }
+            return -1;
+        },
+        // eq; not; if-goto L  ->  sub; if-goto L (a - b is nonzero exactly when a != b)
+        (code, end, refs) -> {
+            if (end >= 3 && code.get(end - 3) == EQ && code.get(end - 2) == NOT
+                && op(code, end - 1) == Opcode.IF_GOTO) {
+                code.set(end - 3, SUB);
+                code.set(end - 2, code.get(end - 1));
+                return end - 1;
+            }
+            return -1;
+        },
+        // goto L; label L  ->  label L
+        (code, end, refs) -> {
+            if (end >= 2 && op(code, end - 2) == Opcode.GOTO && op(code, end - 1) == Opcode.LABEL
+                && VMCode.nameId(code.get(end - 2)) == VMCode.nameId(code.get(end - 1))) {
+                refs[VMCode.nameId(code.get(end - 1))]--;
+                code.set(end - 2, code.get(end - 1));
+                return end - 1;
+            }
+            return -1;
+        },
+        // array store of a simple value:
+        // push x; pop temp 0; pop pointer 1; push temp 0; pop that 0
+        //   ->  pop pointer 1; push x; pop that 0 (unless x depends on pointer 1)
+        (code, end, refs) -> {
+            if (end >= 5 && op(code, end - 5) == Opcode.PUSH
+                && code.get(end - 4) == POP_TEMP_0 && code.get(end - 3) == POP_POINTER_1
+                && code.get(end - 2) == PUSH_TEMP_0 && code.get(end - 1) == POP_THAT_0) {
+                long push = code.get(end - 5);
+                Segment segment = VMCode.segment(push);
+                if (segment == Segment.THAT || segment == Segment.POINTER) {
+                    return -1;
+                }
+                code.set(end - 5, POP_POINTER_1);
+                code.set(end - 4, push);
+                code.set(end - 3, POP_THAT_0);
+                return end - 2;
+            }
+            return -1;
+        },
+    };
+
+    @Override
+    public void apply(VMCode code) {
+        int size;
+        do {
+            size = code.size();
+            rewrite(code);
+        } while (code.size() < size);
+    }
+
+    private static void rewrite(VMCode code) {
+        int[] labelRefs = countLabelRefs(code);
+        int n = code.size();
+        int end = 0;
+        boolean reachable = true;
+        for (int i = 0; i < n; i++) {
+            long insn = code.get(i);
+            Opcode op = VMCode.opcode(insn);
+            if (op == Opcode.LABEL) {
+                if (labelRefs[VMCode.nameId(insn)] == 0) {
+                    continue;
+                }
+                reachable = true;
+            } else if (!reachable && op != Opcode.FUNCTION) {
+                if (op == Opcode.GOTO || op == Opcode.IF_GOTO) {
+                    labelRefs[VMCode.nameId(insn)]--;
+                }
+                continue;
+            }
+            code.set(end++, insn);
+            end = reduce(code, end, labelRefs);
+
+            Opcode last = (end > 0) ? VMCode.opcode(code.get(end - 1)) : null;
+            reachable = last != Opcode.GOTO && last != Opcode.RETURN;
+        }
+        code.truncate(end);
+    }
+
+    /**
+     * Applies rules to the tail of code[0, end) until none applies. Returns the new end.
+     */
+    private static int reduce(VMCode code, int end, int[] labelRefs) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Rule rule : RULES) {
+                int newEnd = rule.apply(code, end, labelRefs);
+                if (newEnd >= 0) {
+                    end = newEnd;
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return end;
+    }
+
+    private static int[] countLabelRefs(VMCode code) {
+        int max = 0;
+        for (int i = 0; i < code.size(); i++) {
+            max = Math.max(max, VMCode.nameId(code.get(i)));
+        }
+        int[] refs = new int[max + 1];
+        for (int i = 0; i < code.size(); i++) {
+            long insn = code.get(i);
+            Opcode op = VMCode.opcode(insn);
+            if (op == Opcode.GOTO || op == Opcode.IF_GOTO) {
+                refs[VMCode.nameId(insn)]++;
+            }
+        }
+        return refs;
+    }
+
+    private static Opcode op(VMCode code, int i) {
+        return VMCode.opcode(code.get(i));
+    }
+
+    /**
+     * Segment and index of a push/pop, without the opcode.
+     */
+    private static long operand(long insn) {
+        return insn >>> 8;
+    }
+
+}
@@ -0,0 +1,92 @@
+package main.project_11;
+
+import java.util.BitSet;
+
+/**
+ * Turns a subroutine's calls to itself whose result it returns straight away into a jump back
+ * to its start, so self-recursion of that kind runs in constant stack space. The arguments of
+ * the call are popped into the argument slots, and the locals that may be read before being
+ * written (live at the start) are reset to 0, as a new call would find them; the others are
+ * written first on every path anyway. The jump target is right after the function command,
+ * so a method sets pointer 0 from its new argument 0 again, and a constructor allocates a
+ * new object.
+ * <p>
+ * A void subroutine discards the result and returns 0 instead; when every return of the
+ * subroutine returns 0, that is the same as returning the call's result.
+ */
+public class TailCallPass implements Pass {
+
+    private static final String START = "TAIL_CALL_START";
+
+    private static final long PUSH_0 = VMCode.encode(Opcode.PUSH, Segment.CONSTANT, 0);
+    private static final long POP_TEMP_0 = VMCode.encode(Opcode.POP, Segment.TEMP, 0);
+    private static final long RETURN = VMCode.encode(Opcode.RETURN, 0, 0);
+
+    @Override
+    public void apply(VMCode code) {
+        String self = code.functionName();
+        long header = code.get(0);
+        boolean returnsZero = true;
+        for (int i = 1; i < code.size(); i++) {
+            if (code.get(i) == RETURN && code.get(i - 1) != PUSH_0) {
+                returnsZero = false;
+            }
+        }
+
+        BitSet reset = null;
+        VMCode result = code.copy();
+        result.clear();
+        boolean found = false;
+        for (int i = 1; i < code.size(); i++) {
+            long insn = code.get(i);
+            int length = tailCallLength(code, i, self, returnsZero);
+            if (length == 0) {
+                result.add(insn);
+                continue;
+            }
+            for (int a = VMCode.index(insn) - 1; a >= 0; a--) {
+                result.pop(Segment.ARGUMENT, a);
+            }
+            if (reset == null) {
+                reset = new LocalLiveness(code, new FlowGraph(code)).liveIn(0);
+            }
+            for (int l = reset.nextSetBit(0); l >= 0; l = reset.nextSetBit(l + 1)) {
+                result.push(Segment.CONSTANT, 0);
+                result.pop(Segment.LOCAL, l);
+            }
+            result.goTo(START);
+            found = true;
+            i += length - 1;
+        }
+
+        if (!found) {
+            return;
+        }
+        code.clear();
+        code.add(header);
+        code.label(START);
+        for (int i = 0; i < result.size(); i++) {
+            code.add(result.get(i));
+        }
+    }
+
+    /**
+     * Length of the self tail call starting at code[i], or 0 if there is none.
+     */
+    private static int tailCallLength(VMCode code, int i, String self, boolean returnsZero) {
+        long insn = code.get(i);
+        if (VMCode.opcode(insn) != Opcode.CALL || !code.name(VMCode.nameId(insn)).equals(self)) {
+            return 0;
+        }
+        int n = code.size();
+        if (i + 1 < n && code.get(i + 1) == RETURN) {
+            return 2;
+        }
+        if (returnsZero && i + 3 < n && code.get(i + 1) == POP_TEMP_0
+            && code.get(i + 2) == PUSH_0 && code.get(i + 3) == RETURN) {
+            return 4;
+        }
+        return 0;
+    }
+
+}
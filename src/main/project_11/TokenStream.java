@@ -0,0 +1,67 @@
+package main.project_11;
+
+import java.util.Arrays;
+
+/**
+ * Pre-lexed tokens of one source file, packed into parallel primitive arrays. A token is its
+ * type, its [start, end) byte range in the source and an int value: the parsed number for
+ * INT_CONST, the character for SYMBOL and the Keyword ordinal for KEYWORD. No token text is kept.
+ */
+public class TokenStream {
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private byte[] types;
+    private int[] starts;
+    private int[] ends;
+    private int[] values;
+    private int size = 0;
+
+    public TokenStream(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        this.types = new byte[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.values = new int[capacity];
+    }
+
+    public void add(TokenType type, int start, int end, int value) {
+        if (size == types.length) {
+            grow();
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenType type(int i) {
+        return TYPES[types[i]];
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int end(int i) {
+        return ends[i];
+    }
+
+    public int value(int i) {
+        return values[i];
+    }
+
+    private void grow() {
+        int capacity = types.length * 2;
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+}
@@ -0,0 +1,49 @@
+package main.project_11;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the subroutines of a whole program that can run, by following call instructions from
+ * the entry points. Jack has no inheritance or function values, so every call names exactly
+ * the subroutine it runs and the call graph is complete. Calls to subroutines outside the
+ * program (the OS) are ignored.
+ */
+public final class TreeShaker {
+
+    private TreeShaker() {
+    }
+
+    /**
+     * Names of the subroutines reachable from the entries, given each subroutine's code by
+     * name. Entries that are not part of the program are skipped.
+     */
+    public static Set<String> reachable(Map<String, VMCode> program, Collection<String> entries) {
+        Set<String> reached = new LinkedHashSet<>();
+        Deque<String> work = new ArrayDeque<>();
+        for (String entry : entries) {
+            if (program.containsKey(entry) && reached.add(entry)) {
+                work.add(entry);
+            }
+        }
+        while (!work.isEmpty()) {
+            VMCode code = program.get(work.poll());
+            for (int i = 0; i < code.size(); i++) {
+                long insn = code.get(i);
+                if (VMCode.opcode(insn) != Opcode.CALL) {
+                    continue;
+                }
+                String callee = code.name(VMCode.nameId(insn));
+                if (program.containsKey(callee) && reached.add(callee)) {
+                    work.add(callee);
+                }
+            }
+        }
+        return reached;
+    }
+
+}
@@ -0,0 +1,212 @@
+package main.project_11;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory VM code of one subroutine, the form the optimizer works on before VMWriter
+ * serializes it. Each instruction is packed into a long:
+ * <pre>
+ *   bits  0..7   opcode ordinal
+ *   bits  8..31  push/pop: segment ordinal; label/goto/if-goto/call/function: name id
+ *   bits 32..63  push/pop: index; call: nArgs; function: nVars
+ * </pre>
+ * Label and function names are interned into a table that outlives clear(), so the labels
+ * every subroutine reuses are only stored once per class.
+ */
+public class VMCode {
+
+    private static final Opcode[] OPCODES = Opcode.values();
+    private static final Segment[] SEGMENTS = Segment.values();
+
+    private long[] code = new long[256];
+    private int size = 0;
+
+    private final List<String> names;
+    private final Map<String, Integer> ids;
+
+    public VMCode() {
+        this(new ArrayList<>(), new HashMap<>());
+    }
+
+    private VMCode(List<String> names, Map<String, Integer> ids) {
+        this.names = names;
+        this.ids = ids;
+    }
+
+    // ----------------- building -----------------
+
+    public void push(Segment segment, int index) {
+        add(encode(Opcode.PUSH, segment.ordinal(), index));
+    }
+
+    public void pop(Segment segment, int index) {
+        add(encode(Opcode.POP, segment.ordinal(), index));
+    }
+
+    /**
+     * op is one of the arithmetic / logical commands.
+     */
+    public void arithmetic(Opcode op) {
+        if (!op.isArithmetic()) {
+            throw new IllegalArgumentException("Not an arithmetic command: " + op);
+        }
+        add(encode(op, 0, 0));
+    }
+
+    public void label(String label) {
+        add(encode(Opcode.LABEL, intern(label), 0));
+    }
+
+    public void goTo(String label) {
+        add(encode(Opcode.GOTO, intern(label), 0));
+    }
+
+    public void ifGoto(String label) {
+        add(encode(Opcode.IF_GOTO, intern(label), 0));
+    }
+
+    public void call(String name, int nArgs) {
+        add(encode(Opcode.CALL, intern(name), nArgs));
+    }
+
+    public void function(String name, int nVars) {
+        add(encode(Opcode.FUNCTION, intern(name), nVars));
+    }
+
+    public void ret() {
+        add(encode(Opcode.RETURN, 0, 0));
+    }
+
+    public void add(long insn) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = insn;
+    }
+
+    /**
+     * A copy of the instructions. It shares the name table, which is only ever appended to,
+     * so names interned later do not affect the copy's ids.
+     */
+    public VMCode copy() {
+        VMCode copy = new VMCode(names, ids);
+        copy.code = Arrays.copyOf(code, Math.max(size, 16));
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * The name of the function this code defines, if it starts with a function command.
+     */
+    public String functionName() {
+        if (size == 0 || opcode(code[0]) != Opcode.FUNCTION) {
+            return null;
+        }
+        return name(nameId(code[0]));
+    }
+
+    // ----------------- access -----------------
+
+    public int size() {
+        return size;
+    }
+
+    public long get(int i) {
+        return code[i];
+    }
+
+    public void set(int i, long insn) {
+        code[i] = insn;
+    }
+
+    /**
+     * Removes the instructions in [from, to), moving the ones after them down.
+     */
+    public void remove(int from, int to) {
+        System.arraycopy(code, to, code, from, size - to);
+        size -= to - from;
+    }
+
+    /**
+     * Drops all instructions from index size on, e.g. after a pass compacted the code.
+     */
+    public void truncate(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Drops all instructions; interned names are kept.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    public String name(int id) {
+        return names.get(id);
+    }
+
+    // ----------------- instruction encoding -----------------
+
+    public static long encode(Opcode op, int a, int b) {
+        return op.ordinal() | ((long) (a & 0xffffff) << 8) | ((long) b << 32);
+    }
+
+    public static long encode(Opcode op, Segment segment, int index) {
+        return encode(op, segment.ordinal(), index);
+    }
+
+    public static Opcode opcode(long insn) {
+        return OPCODES[(int) (insn & 0xff)];
+    }
+
+    public static Segment segment(long insn) {
+        return SEGMENTS[nameId(insn)];
+    }
+
+    public static int nameId(long insn) {
+        return (int) (insn >>> 8) & 0xffffff;
+    }
+
+    /**
+     * The index of a push/pop, nArgs of a call or nVars of a function.
+     */
+    public static int index(long insn) {
+        return (int) (insn >>> 32);
+    }
+
+    /**
+     * The instruction as a line of VM text, for messages.
+     */
+    public String toString(long insn) {
+        Opcode op = opcode(insn);
+        switch (op) {
+            case PUSH:
+            case POP:
+                return op.text() + " " + segment(insn).vmName() + " " + index(insn);
+            case LABEL:
+            case GOTO:
+            case IF_GOTO:
+                return op.text() + " " + name(nameId(insn));
+            case CALL:
+            case FUNCTION:
+                return op.text() + " " + name(nameId(insn)) + " " + index(insn);
+            default:
+                return op.text();
+        }
+    }
+
+}
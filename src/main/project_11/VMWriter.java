@@ -1,66 +1,289 @@
 package main.project_11;
 
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
+/**
+ * Writes VM commands into a reusable byte buffer that is flushed straight to a channel. Command
+ * prefixes are encoded once up front and numbers are formatted in place, so emitting a command
+ * allocates nothing.
+ */
 public class VMWriter implements Closeable {
 
-    private final BufferedWriter out;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[][] PUSH = prefixes("push ");
+    private static final byte[][] POP = prefixes("pop ");
+    private static final byte[] LABEL = ascii("label ");
+    private static final byte[] GOTO = ascii("goto ");
+    private static final byte[] IF_GOTO = ascii("if-goto ");
+    private static final byte[] CALL = ascii("call ");
+    private static final byte[] FUNCTION = ascii("function ");
+    private static final byte[] RETURN = ascii("return\n");
+    private static final byte[][] LINES = lines();
+
+    private final WritableByteChannel channel;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private final ByteBuffer view = ByteBuffer.wrap(buf);
+    private int count = 0;
+
+    // Totals for build metrics
+    private int commands = 0;
+    private long bytesWritten = 0;
+    private long writeNanos = 0;
 
     /**
      * Creates a new output .vm file / stream, and prepares it for writing.
      */
     public VMWriter(Path outVmFile) throws IOException {
-        this.out = Files.newBufferedWriter(outVmFile, StandardCharsets.UTF_8);
+        this(FileChannel.open(outVmFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Writes to the given channel, which is closed along with this writer.
+     */
+    public VMWriter(WritableByteChannel channel) {
+        this.channel = channel;
     }
 
     public void writePush(Segment segment, int index) throws IOException {
-        out.write("push " + segment.vmName() + " " + index + "\n");
+        commands++;
+        write(PUSH[segment.ordinal()]);
+        writeNumberLine(index);
     }
 
     public void writePop(Segment segment, int index) throws IOException {
-        out.write("pop " + segment.vmName() + " " + index + "\n");
+        commands++;
+        write(POP[segment.ordinal()]);
+        writeNumberLine(index);
     }
 
     /**
      * command is one of: add, sub, neg, eq, gt, lt, and, or, not
      */
     public void writeArithmetic(String command) throws IOException {
-        out.write(command + "\n");
+        commands++;
+        write(command);
+        writeByte('\n');
+    }
+
+    /**
+     * op is one of the arithmetic / logical commands.
+     */
+    public void writeArithmetic(Opcode op) throws IOException {
+        commands++;
+        write(LINES[op.ordinal()]);
     }
 
     public void writeLabel(String label) throws IOException {
-        out.write("label " + label + "\n");
+        commands++;
+        write(LABEL);
+        write(label);
+        writeByte('\n');
     }
 
     public void writeGoto(String label) throws IOException {
-        out.write("goto " + label + "\n");
+        commands++;
+        write(GOTO);
+        write(label);
+        writeByte('\n');
     }
 
     public void writeIf(String label) throws IOException {
-        out.write("if-goto " + label + "\n");
+        commands++;
+        write(IF_GOTO);
+        write(label);
+        writeByte('\n');
     }
 
     public void writeCall(String name, int nArgs) throws IOException {
-        out.write("call " + name + " " + nArgs + "\n");
+        commands++;
+        write(CALL);
+        write(name);
+        writeByte(' ');
+        writeNumberLine(nArgs);
     }
 
     public void writeFunction(String name, int nVars) throws IOException {
-        out.write("function " + name + " " + nVars + "\n");
+        commands++;
+        write(FUNCTION);
+        write(name);
+        writeByte(' ');
+        writeNumberLine(nVars);
     }
 
     public void writeReturn() throws IOException {
-        out.write("return\n");
+        commands++;
+        write(RETURN);
+    }
+
+    /**
+     * Writes out all instructions of the code, in order.
+     */
+    public void write(VMCode code) throws IOException {
+        for (int i = 0; i < code.size(); i++) {
+            long insn = code.get(i);
+            Opcode op = VMCode.opcode(insn);
+            switch (op) {
+                case PUSH:
+                    writePush(VMCode.segment(insn), VMCode.index(insn));
+                    break;
+                case POP:
+                    writePop(VMCode.segment(insn), VMCode.index(insn));
+                    break;
+                case LABEL:
+                    writeLabel(code.name(VMCode.nameId(insn)));
+                    break;
+                case GOTO:
+                    writeGoto(code.name(VMCode.nameId(insn)));
+                    break;
+                case IF_GOTO:
+                    writeIf(code.name(VMCode.nameId(insn)));
+                    break;
+                case CALL:
+                    writeCall(code.name(VMCode.nameId(insn)), VMCode.index(insn));
+                    break;
+                case FUNCTION:
+                    writeFunction(code.name(VMCode.nameId(insn)), VMCode.index(insn));
+                    break;
+                case RETURN:
+                    writeReturn();
+                    break;
+                default:
+                    writeArithmetic(op);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Number of VM commands written.
+     */
+    public int commandCount() {
+        return commands;
+    }
+
+    /**
+     * Bytes handed to the channel so far; all of them once closed.
+     */
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Time spent in channel writes, in nanoseconds.
+     */
+    public long writeNanos() {
+        return writeNanos;
     }
 
     @Override
     public void close() throws IOException {
-        out.flush();
-        out.close();
+        try {
+            flushBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (count == buf.length) {
+            flushBuffer();
+        }
+        buf[count++] = (byte) b;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        int off = 0;
+        while (off < bytes.length) {
+            if (count == buf.length) {
+                flushBuffer();
+            }
+            int n = Math.min(bytes.length - off, buf.length - count);
+            System.arraycopy(bytes, off, buf, count, n);
+            count += n;
+            off += n;
+        }
+    }
+
+    /**
+     * Names and labels are almost always ASCII and are copied char by char; anything else is
+     * encoded as UTF-8 from the first non-ASCII char on.
+     */
+    private void write(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                write(s.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            writeByte(c);
+        }
+    }
+
+    /**
+     * Formats n in decimal followed by a newline, writing the digits backwards into the buffer.
+     */
+    private void writeNumberLine(int n) throws IOException {
+        if (buf.length - count < 12) {
+            flushBuffer();
+        }
+        long v = n;
+        if (v < 0) {
+            buf[count++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) {
+            digits++;
+        }
+        int p = count + digits;
+        do {
+            buf[--p] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        count += digits;
+        buf[count++] = '\n';
+    }
+
+    private void flushBuffer() throws IOException {
+        long t0 = System.nanoTime();
+        view.clear().limit(count);
+        while (view.hasRemaining()) {
+            channel.write(view);
+        }
+        bytesWritten += count;
+        count = 0;
+        writeNanos += System.nanoTime() - t0;
+    }
+
+    private static byte[][] prefixes(String command) {
+        Segment[] segments = Segment.values();
+        byte[][] prefixes = new byte[segments.length][];
+        for (Segment segment : segments) {
+            prefixes[segment.ordinal()] = ascii(command + segment.vmName() + " ");
+        }
+        return prefixes;
+    }
+
+    private static byte[][] lines() {
+        Opcode[] ops = Opcode.values();
+        byte[][] lines = new byte[ops.length][];
+        for (Opcode op : ops) {
+            lines[op.ordinal()] = ascii(op.text() + "\n");
+        }
+        return lines;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
     }
 
 }
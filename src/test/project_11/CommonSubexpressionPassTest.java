@@ -0,0 +1,54 @@
+package test.project_11;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CommonSubexpressionPassTest {
+
+    @TempDir
+    Path tmp;
+
+    /**
+     * The second a[i] drops its "pop pointer 1" as the call cannot change pointer 1. That must
+     * still hold once the call is inlined, although Main.peek's code sets pointer 1 itself.
+     */
+    @Test
+    void arrayAddressSurvivesInlinedCall() throws IOException {
+        Path source = Files.createDirectory(tmp.resolve("Peek"));
+        Files.writeString(source.resolve("Main.jack"), String.join("\n",
+            "class Main {",
+            "    function int peek(Array b) { return b[1]; }",
+            "    function void main() {",
+            "        var Array a, b;",
+            "        var int i, x, y;",
+            "        let a = Array.new(3);",
+            "        let b = Array.new(3);",
+            "        let i = 0;",
+            "        let a[0] = 7;",
+            "        let b[1] = 100;",
+            "        let x = a[i] + Main.peek(b);",
+            "        let y = a[i];",
+            "        do Output.printInt(x);",
+            "        do Output.printInt(y);",
+            "        return;",
+            "    }",
+            "}"));
+
+        List<String> expected = List.of("Output.printInt 107", "Output.printInt 7");
+        for (String[] options : new String[][] {
+            {}, {"-O2"}, {"-O2", "--whole-program"}}) {
+            VMRunner.Result result =
+                new VMRunner(VMRunner.compile(source, tmp, options)).run(100_000);
+            assertTrue(result.finished, String.join(" ", options));
+            assertEquals(expected, result.output, String.join(" ", options));
+        }
+    }
+
+}
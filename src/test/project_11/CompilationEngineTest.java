@@ -0,0 +1,114 @@
+package test.project_11;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CompilationEngineTest {
+
+    private static final String[][] LEVELS = {{"-O0"}, {"-O1"}, {"-O2"}};
+
+    @TempDir
+    Path tmp;
+
+    /**
+     * A while loop runs while its condition is true (-1), so the rotated loop must not
+     * treat other nonzero values as true.
+     */
+    @Test
+    void rotatedWhileKeepsConditionMeaning() throws IOException {
+        Path source = writeMain("Loops",
+            "        var int i, n;",
+            "        let i = 3;",
+            "        while (i) { do Output.printInt(i); let i = 0; }",
+            "        let i = -1;",
+            "        while (i) { do Output.printInt(i); let i = 0; }",
+            "        let i = 0;",
+            "        while (i < 3) { let n = n + 1; let i = i + 1; }",
+            "        while (~(i = 0) & (n > 0)) { let n = n - 1; let i = i - 1; }",
+            "        let i = 1;",
+            "        while (~i) { do Output.printInt(i); let i = 0; }",
+            "        do Output.printInt(n);");
+
+        for (String[] options : LEVELS) {
+            VMRunner.Result result =
+                new VMRunner(VMRunner.compile(source, tmp, options)).run(10_000);
+            assertTrue(result.finished, options[0]);
+            assertEquals(List.of("Output.printInt -1", "Output.printInt 0"), result.output,
+                options[0]);
+        }
+    }
+
+    @Test
+    void rotatedWhileDropsNotOfComparison() throws IOException {
+        Path source = writeMain("Compare",
+            "        var int i;",
+            "        while (i < 3) { let i = i + 1; }",
+            "        while (i) { let i = 0; }");
+
+        String vm = Files.readString(VMRunner.compile(source, tmp, "-O1").resolve("Main.vm"));
+        assertTrue(vm.contains("lt\nif-goto WHILE_BODY0\n"), vm);
+        assertTrue(vm.contains("push local 0\npush constant 0\nnot\neq\nif-goto WHILE_BODY1\n"),
+            vm);
+        assertFalse(vm.contains("WHILE_END"), vm);
+    }
+
+    /**
+     * true and ~flag are the conditions of typical main loops: the first needs no test at all,
+     * the second only "flag = 0".
+     */
+    @Test
+    void rotatedWhileOfTrueAndNotFlag() throws IOException {
+        Path source = writeMain("Flags",
+            "        var boolean exit;",
+            "        var int i;",
+            "        while (~exit) { let exit = true; }",
+            "        while (true) { let i = i + 1; if (i > 5) { return; } }");
+
+        String vm = Files.readString(VMRunner.compile(source, tmp, "-O1").resolve("Main.vm"));
+        assertTrue(vm.contains(
+            "label WHILE_EXP0\npush local 0\npush constant 0\neq\nif-goto WHILE_BODY0\n"), vm);
+        assertTrue(vm.contains("label WHILE_EXP1\ngoto WHILE_BODY1\n"), vm);
+
+        // nothing left for LoopInvariantPass to move out of the test of while (true)
+        vm = Files.readString(VMRunner.compile(source, tmp, "-O2").resolve("Main.vm"));
+        assertTrue(vm.contains("label WHILE_EXP1\ngoto WHILE_BODY1\n"), vm);
+    }
+
+    @Test
+    void squareBehavesTheSameAtEveryLevel() throws IOException {
+        List<String> expected = null;
+        for (String[] options : LEVELS) {
+            VMRunner.Result result =
+                new VMRunner(VMRunner.compile(VMRunner.sample("Square"), tmp, options))
+                    .keys(VMRunner.SQUARE_KEYS)
+                    .run(10_000_000);
+            assertTrue(result.finished, options[0]);
+            if (expected == null) {
+                expected = result.output;
+                assertTrue(expected.size() > 10, expected.toString());
+            } else {
+                assertEquals(expected, result.output, options[0]);
+            }
+        }
+    }
+
+    private Path writeMain(String name, String... body) throws IOException {
+        Path source = Files.createDirectory(tmp.resolve(name));
+        StringBuilder sb = new StringBuilder("class Main {\n    function void main() {\n");
+        for (String line : body) {
+            sb.append(line).append('\n');
+        }
+        sb.append("        return;\n    }\n}\n");
+        Files.writeString(source.resolve("Main.jack"), sb);
+        return source;
+    }
+
+}
@@ -0,0 +1,56 @@
+package test.project_11;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import main.project_11.JackCompiler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CompileCacheTest {
+
+    @TempDir
+    Path tmp;
+
+    /**
+     * Disposing a pooled literal is only noticed while compiling, so a build that restores
+     * the file from the cache must still report it.
+     */
+    @Test
+    void hitRepeatsWarnings() throws IOException {
+        Path source = Files.createDirectory(tmp.resolve("Pool"));
+        Files.writeString(source.resolve("Main.jack"), String.join("\n",
+            "class Main {",
+            "    function void main() {",
+            "        var String s;",
+            "        let s = \"shared\";",
+            "        do s.dispose();",
+            "        return;",
+            "    }",
+            "}"));
+        String[] args = {"--pool-strings", "--cache", tmp.resolve("cache").toString(),
+            source.toString()};
+
+        String miss = run(args);
+        String hit = run(args);
+        assertTrue(miss.contains("Warning: Main.main: "), miss);
+        assertEquals(miss, hit);
+        assertEquals("", run("--cache", tmp.resolve("cache").toString(), source.toString()));
+    }
+
+    private static String run(String... args) {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = JackCompiler.run(args, Paths.get(""),
+            new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+        assertEquals(0, status, err.toString(StandardCharsets.UTF_8));
+        return err.toString(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,148 @@
+package test.project_11;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import main.project_11.JackTokenizer;
+import org.junit.jupiter.api.Test;
+
+class JackTokenizerTest {
+
+    private static final int[] BUFFER_SIZES = {16, 17, 18, 19, 23, 31, 32, 33, 64, 4096};
+
+    /**
+     * Identifiers and numbers up to the longest that fits, block comments longer than the
+     * buffer, "*" right before a buffer end and multi-byte UTF-8 in strings and comments.
+     */
+    private static final String MIXED = String.join("\n",
+        "/** API comment that is a good deal longer than the smallest buffer ***/",
+        "class Mixed {",
+        "    field int a, bb, abcdefghijklmn; // é ☃ 𝄞 in a line comment",
+        "    /* é ☃ 𝄞 in a block comment * / ** */",
+        "    method void run() {",
+        "        let abcdefghijklmn = 32767 + 1 + 12345;",
+        "        do Output.printString(\"é☃𝄞 tail\");",
+        "        do Output.printString(\"𝄞𝄞𝄞\");",
+        "        do Output.printString(\"\");",
+        "        let a=bb*(a-1)/2;/**/let bb=~a;//",
+        "        return;",
+        "    }",
+        "}",
+        "");
+
+    @Test
+    void streamingMatchesPreLexedForSamples() throws IOException {
+        for (String sample : new String[] {"Square", "ExpressionLessSquare", "ArrayTest"}) {
+            for (Path file : VMRunner.list(VMRunner.sample(sample), "*.jack")) {
+                assertStreamingMatches(Files.readAllBytes(file), file.toString());
+            }
+        }
+    }
+
+    /**
+     * Shifts the source by 0 to 15 bytes, so every token and comment crosses a refill boundary
+     * at some point of some buffer size.
+     */
+    @Test
+    void streamingMatchesPreLexedAcrossRefills() {
+        for (int shift = 0; shift < 16; shift++) {
+            byte[] source = (" ".repeat(shift) + MIXED).getBytes(StandardCharsets.UTF_8);
+            assertStreamingMatches(source, "shift " + shift);
+        }
+    }
+
+    @Test
+    void oversizedTokenIsReported() {
+        byte[] source = "class abcdefghijklmnopqrstuvwxyz { }".getBytes(StandardCharsets.UTF_8);
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+            () -> tokens(new JackTokenizer(channel(source, 16), 16)));
+        assertEquals("Token at pos 6 does not fit the 16-byte buffer", e.getMessage());
+
+        byte[] string = "let s = \"0123456789abcdef\";".getBytes(StandardCharsets.UTF_8);
+        e = assertThrows(IllegalStateException.class,
+            () -> tokens(new JackTokenizer(channel(string, 7), 16)));
+        assertEquals("Token at pos 9 does not fit the 16-byte buffer", e.getMessage());
+    }
+
+    /**
+     * Streams the source at every buffer size, once from a channel that fills the buffer and
+     * once from one that hands out a few bytes per read. Sizes the longest token does not fit
+     * must fail; all others must yield the pre-lexed tokens.
+     */
+    private static void assertStreamingMatches(byte[] source, String name) {
+        List<String> expected = tokens(new JackTokenizer(ByteBuffer.wrap(source)));
+        int longest = 0;
+        for (String token : expected) {
+            longest = Math.max(longest, utf8Length(token));
+        }
+        for (int size : BUFFER_SIZES) {
+            for (int chunk : new int[] {size, 5}) {
+                String where = name + " buffer " + size + " chunk " + chunk;
+                JackTokenizer streaming = new JackTokenizer(channel(source, chunk), size);
+                if (longest >= size) {
+                    assertThrows(IllegalStateException.class, () -> tokens(streaming), where);
+                } else {
+                    assertEquals(expected, tokens(streaming), where);
+                }
+            }
+        }
+    }
+
+    /**
+     * Each token as "index type text", read the way CompilationEngine reads them.
+     */
+    private static List<String> tokens(JackTokenizer tokenizer) {
+        List<String> tokens = new ArrayList<>();
+        while (tokenizer.hasMoreTokens()) {
+            tokenizer.advance();
+            tokens.add(tokenizer.tokenIndex() + " " + tokenizer.tokenType() + " "
+                + tokenizer.token());
+        }
+        return tokens;
+    }
+
+    private static int utf8Length(String token) {
+        String text = token.substring(token.indexOf(' ', token.indexOf(' ') + 1) + 1);
+        return text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * A channel over the source that returns at most chunk bytes per read.
+     */
+    private static ReadableByteChannel channel(byte[] source, int chunk) {
+        ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(source));
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int limit = dst.limit();
+                dst.limit(Math.min(limit, dst.position() + chunk));
+                try {
+                    return in.read(dst);
+                } finally {
+                    dst.limit(limit);
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return in.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+}
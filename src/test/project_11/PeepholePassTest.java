@@ -0,0 +1,175 @@
+package test.project_11;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import main.project_11.Opcode;
+import main.project_11.PeepholePass;
+import main.project_11.Segment;
+import main.project_11.VMCode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PeepholePassTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void pushPopSameLocation() {
+        assertRewrites(
+            List.of("push local 1", "pop local 1", "push argument 0", "pop local 0"),
+            List.of("push argument 0", "pop local 0"));
+    }
+
+    @Test
+    void doubleNotAndNeg() {
+        assertRewrites(
+            List.of("push local 0", "not", "not", "neg", "neg", "pop local 1"),
+            List.of("push local 0", "pop local 1"));
+    }
+
+    @Test
+    void minusOneBecomesTrue() {
+        assertRewrites(
+            List.of("push constant 1", "neg", "pop local 0"),
+            List.of("push constant 0", "not", "pop local 0"));
+    }
+
+    @Test
+    void branchOnFalseIsDropped() {
+        assertRewrites(
+            List.of("push constant 0", "if-goto L", "push local 0", "pop local 1", "label L"),
+            List.of("push local 0", "pop local 1"));
+    }
+
+    @Test
+    void branchOnTrueBecomesGoto() {
+        assertRewrites(
+            List.of("label L", "push local 0", "if-goto M", "push constant 1", "neg", "not",
+                "not", "if-goto L", "label M"),
+            List.of("label L", "push local 0", "if-goto M", "goto L", "label M"));
+    }
+
+    @Test
+    void branchOnNotEqualBecomesSub() {
+        assertRewrites(
+            List.of("label L", "push local 0", "push constant 3", "eq", "not", "if-goto L"),
+            List.of("label L", "push local 0", "push constant 3", "sub", "if-goto L"));
+    }
+
+    @Test
+    void branchOnNotLessThanIsKept() {
+        List<String> code =
+            List.of("label L", "push local 0", "push constant 3", "lt", "not", "if-goto L");
+        assertRewrites(code, code);
+    }
+
+    @Test
+    void gotoNextInstructionIsDropped() {
+        assertRewrites(
+            List.of("push local 0", "pop local 1", "goto L", "label L", "push local 1",
+                "pop local 0"),
+            List.of("push local 0", "pop local 1", "push local 1", "pop local 0"));
+    }
+
+    @Test
+    void arrayStoreOfSimpleValue() {
+        assertRewrites(
+            List.of("push local 0", "push local 1", "add", "push argument 2", "pop temp 0",
+                "pop pointer 1", "push temp 0", "pop that 0"),
+            List.of("push local 0", "push local 1", "add", "pop pointer 1", "push argument 2",
+                "pop that 0"));
+    }
+
+    @Test
+    void arrayStoreOfArrayElementIsKept() {
+        // the value is read through the old pointer 1, so it must be read first
+        List<String> code = List.of("push local 0", "push that 0", "pop temp 0",
+            "pop pointer 1", "push temp 0", "pop that 0");
+        assertRewrites(code, code);
+    }
+
+    @Test
+    void unreachableCodeAndUnusedLabelsAreDropped() {
+        assertRewrites(
+            List.of("label A", "push local 0", "if-goto B", "goto A", "push local 1",
+                "pop local 0", "label C", "label B", "push local 2", "pop local 0"),
+            List.of("label A", "push local 0", "if-goto B", "goto A", "label B",
+                "push local 2", "pop local 0"));
+    }
+
+    @Test
+    void samplesBehaveTheSameAtO1() throws IOException {
+        assertSameBehavior(new VMRunner(compile("Square", "-O0")).keys(VMRunner.SQUARE_KEYS),
+            new VMRunner(compile("Square", "-O1")).keys(VMRunner.SQUARE_KEYS));
+        assertSameBehavior(new VMRunner(compile("ExpressionLessSquare", "-O0")),
+            new VMRunner(compile("ExpressionLessSquare", "-O1")));
+        assertSameBehavior(new VMRunner(compile("ArrayTest", "-O0")).numbers(4, 10, 20, 30, 41),
+            new VMRunner(compile("ArrayTest", "-O1")).numbers(4, 10, 20, 30, 41));
+    }
+
+    private Path compile(String sample, String level) throws IOException {
+        return VMRunner.compile(VMRunner.sample(sample), tmp, level);
+    }
+
+    private static void assertSameBehavior(VMRunner o0, VMRunner o1) {
+        VMRunner.Result expected = o0.run(10_000_000);
+        VMRunner.Result actual = o1.run(10_000_000);
+        assertTrue(expected.finished);
+        assertTrue(actual.finished);
+        assertEquals(expected.output, actual.output);
+    }
+
+    /**
+     * Runs the pass on a function made of the given body and a final return, and compares
+     * the body it leaves.
+     */
+    private static void assertRewrites(List<String> input, List<String> expected) {
+        VMCode code = new VMCode();
+        code.function("Main.test", 3);
+        for (String line : input) {
+            code.add(parse(code, line));
+        }
+        code.push(Segment.CONSTANT, 0);
+        code.ret();
+
+        new PeepholePass().apply(code);
+
+        List<String> actual = new ArrayList<>();
+        for (int i = 1; i < code.size() - 2; i++) {
+            actual.add(code.toString(code.get(i)));
+        }
+        assertEquals("function Main.test 3", code.toString(code.get(0)));
+        assertEquals(List.of("push constant 0", "return"), List.of(
+            code.toString(code.get(code.size() - 2)), code.toString(code.get(code.size() - 1))));
+        assertEquals(expected, actual);
+    }
+
+    private static long parse(VMCode code, String line) {
+        String[] p = line.split(" ");
+        Opcode op = Arrays.stream(Opcode.values())
+            .filter(o -> o.text().equals(p[0]))
+            .findFirst()
+            .orElseThrow();
+        switch (op) {
+            case PUSH:
+            case POP:
+                return VMCode.encode(op, Segment.valueOf(p[1].toUpperCase(Locale.ROOT)),
+                    Integer.parseInt(p[2]));
+            case LABEL:
+            case GOTO:
+            case IF_GOTO:
+                return VMCode.encode(op, code.intern(p[1]), 0);
+            default:
+                return VMCode.encode(op, 0, 0);
+        }
+    }
+
+}
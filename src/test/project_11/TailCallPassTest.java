@@ -0,0 +1,54 @@
+package test.project_11;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TailCallPassTest {
+
+    @TempDir
+    Path tmp;
+
+    /**
+     * u is read before it is written, so it must start out as 0 in every round; t is always
+     * written first and needs no reset.
+     */
+    @Test
+    void resetsOnlyLocalsReadBeforeWritten() throws IOException {
+        Path source = Files.createDirectory(tmp.resolve("Sum"));
+        Files.writeString(source.resolve("Main.jack"), String.join("\n",
+            "class Main {",
+            "    function int sum(int n, int acc) {",
+            "        var int t, u;",
+            "        if (n = 0) { return acc + u; }",
+            "        let t = n * 2;",
+            "        let u = u + 1;",
+            "        return Main.sum(n - 1, acc + t);",
+            "    }",
+            "    function void main() {",
+            "        do Output.printInt(Main.sum(10, 0));",
+            "        return;",
+            "    }",
+            "}"));
+
+        Path dir = VMRunner.compile(source, tmp, "-O2");
+        String vm = Files.readString(dir.resolve("Main.vm"));
+        String sum = vm.substring(0, vm.indexOf("function Main.main"));
+        String loop = sum.substring(sum.indexOf("pop argument 0\n"));
+        assertFalse(sum.contains("call Main.sum"), vm);
+        assertTrue(loop.contains("push constant 0\npop local 1\n"), vm);
+        assertFalse(loop.contains("pop local 0"), vm);
+
+        VMRunner.Result result = new VMRunner(dir).run(100_000);
+        assertTrue(result.finished);
+        assertEquals(List.of("Output.printInt 110"), result.output);
+    }
+
+}
@@ -0,0 +1,50 @@
+package test.project_11;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TreeShakerTest {
+
+    @TempDir
+    Path tmp;
+
+    /**
+     * A program with its own Sys starts at Sys.init, so Sys.init and everything it calls stay
+     * even though Main.main never calls them.
+     */
+    @Test
+    void keepsSysInitOfProgram() throws IOException {
+        Path source = Files.createDirectory(tmp.resolve("Boot"));
+        Files.writeString(source.resolve("Sys.jack"), String.join("\n",
+            "class Sys {",
+            "    function void init() {",
+            "        do Sys.setUp();",
+            "        do Main.main();",
+            "        return;",
+            "    }",
+            "    function void setUp() { return; }",
+            "    function void unused() { return; }",
+            "}"));
+        Files.writeString(source.resolve("Main.jack"), String.join("\n",
+            "class Main {",
+            "    function void main() { return; }",
+            "    function void unused() { return; }",
+            "}"));
+
+        Path dir = VMRunner.compile(source, tmp, "--whole-program");
+        String sys = Files.readString(dir.resolve("Sys.vm"));
+        String main = Files.readString(dir.resolve("Main.vm"));
+        assertTrue(sys.contains("function Sys.init "), sys);
+        assertTrue(sys.contains("function Sys.setUp "), sys);
+        assertFalse(sys.contains("function Sys.unused "), sys);
+        assertTrue(main.contains("function Main.main "), main);
+        assertFalse(main.contains("function Main.unused "), main);
+    }
+
+}
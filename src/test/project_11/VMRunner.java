@@ -0,0 +1,396 @@
+package test.project_11;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import main.project_11.JackCompiler;
+
+/**
+ * Compiles Jack programs with the project_11 compiler and runs the generated .vm files on a
+ * small VM interpreter, so tests can compare what programs do rather than the code they
+ * compile to. Execution starts at Main.main. The OS is stubbed: memory comes from a bump
+ * allocator, Output and Screen calls are recorded in the output trace, Keyboard.keyPressed
+ * plays back a script (each key held for three calls, then 0) and Keyboard.readInt returns
+ * the given numbers in turn.
+ */
+final class VMRunner {
+
+    private static final int HEAP_BASE = 2048;
+    private static final int HEAP_END = 16384;
+    private static final int TEMP_BASE = 5;
+    private static final int KEY_CALLS = 3;
+
+    // Keys for the Square sample: up, right, grow, shrink, down, left, grow, then q to quit
+    static final int[] SQUARE_KEYS =
+        {0, 131, 131, 0, 133, 133, 133, 0, 88, 88, 0, 130, 0, 132, 0, 90, 90, 0, 81};
+
+    /**
+     * What a run printed and drew, and whether Main.main returned (or Sys.halt was called)
+     * within the step limit.
+     */
+    static final class Result {
+
+        final boolean finished;
+        final List<String> output;
+        final long steps;
+
+        Result(boolean finished, List<String> output, long steps) {
+            this.finished = finished;
+            this.output = output;
+            this.steps = steps;
+        }
+    }
+
+    private static final class Insn {
+
+        final String op;
+        final String arg;
+        final int n;
+        final String cls;
+        int target = -1;
+
+        Insn(String op, String arg, int n, String cls) {
+            this.op = op;
+            this.arg = arg;
+            this.n = n;
+            this.cls = cls;
+        }
+    }
+
+    private static final class Frame {
+
+        final int pc;
+        final int[] locals;
+        final int[] args;
+        final int thisBase;
+        final int thatBase;
+        final int depth;
+
+        Frame(int pc, int[] locals, int[] args, int thisBase, int thatBase, int depth) {
+            this.pc = pc;
+            this.locals = locals;
+            this.args = args;
+            this.thisBase = thisBase;
+            this.thatBase = thatBase;
+            this.depth = depth;
+        }
+    }
+
+    private final List<Insn> code = new ArrayList<>();
+    private final Map<String, Integer> functions = new HashMap<>();
+    private int[] keys = {};
+    private int[] numbers = {};
+
+    /**
+     * Loads the .vm files of dir.
+     */
+    VMRunner(Path dir) throws IOException {
+        Map<String, Integer> labels = new HashMap<>();
+        for (Path file : list(dir, "*.vm")) {
+            String cls = file.getFileName().toString().replaceFirst("\\.vm$", "");
+            String function = null;
+            for (String line : Files.readAllLines(file)) {
+                int comment = line.indexOf("//");
+                String[] p = ((comment >= 0) ? line.substring(0, comment) : line).trim()
+                    .split("\\s+");
+                if (p[0].isEmpty()) {
+                    continue;
+                }
+                if (p[0].equals("function")) {
+                    function = p[1];
+                    functions.put(function, code.size());
+                } else if (p[0].equals("label")) {
+                    labels.put(function + "$" + p[1], code.size());
+                }
+                String arg = (p.length > 1) ? p[1] : null;
+                if (p[0].equals("goto") || p[0].equals("if-goto")) {
+                    arg = function + "$" + p[1];
+                }
+                code.add(new Insn(p[0], arg, (p.length > 2) ? Integer.parseInt(p[2]) : 0, cls));
+            }
+        }
+        for (Insn insn : code) {
+            if (insn.op.equals("goto") || insn.op.equals("if-goto")) {
+                Integer target = labels.get(insn.arg);
+                if (target == null) {
+                    throw new IllegalStateException("Undefined label " + insn.arg);
+                }
+                insn.target = target;
+            }
+        }
+    }
+
+    /**
+     * Compiles copies of the .jack files in source into a new folder under tmp, with the
+     * given compiler options, and returns that folder.
+     */
+    static Path compile(Path source, Path tmp, String... options) throws IOException {
+        Path dir = Files.createTempDirectory(tmp, source.getFileName().toString());
+        for (Path file : list(source, "*.jack")) {
+            Files.copy(file, dir.resolve(file.getFileName()));
+        }
+        String[] args = new String[options.length + 1];
+        System.arraycopy(options, 0, args, 0, options.length);
+        args[options.length] = dir.toString();
+
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = JackCompiler.run(args, Paths.get(""),
+            new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+        assertEquals(0, status, err.toString(StandardCharsets.UTF_8));
+        return dir;
+    }
+
+    /**
+     * Path of a sample program in src/test/project_10.
+     */
+    static Path sample(String name) {
+        return Paths.get("src", "test", "project_10", name);
+    }
+
+    VMRunner keys(int... keys) {
+        this.keys = keys;
+        return this;
+    }
+
+    VMRunner numbers(int... numbers) {
+        this.numbers = numbers;
+        return this;
+    }
+
+    Result run(long limit) {
+        int[] ram = new int[32768];
+        Map<String, int[]> statics = new HashMap<>();
+        List<String> output = new ArrayList<>();
+        int[] heap = {HEAP_BASE};
+        int[] keyCalls = {0};
+        int[] nextNumber = {0};
+
+        List<Frame> frames = new ArrayList<>();
+        int[] stack = new int[1 << 16];
+        int sp = 0;
+        Integer main = functions.get("Main.main");
+        if (main == null) {
+            throw new IllegalStateException("No Main.main");
+        }
+        int pc = main;
+        int[] locals = new int[code.get(pc).n];
+        int[] args = new int[0];
+        int thisBase = 0;
+        int thatBase = 0;
+
+        for (long steps = 1; steps <= limit; steps++) {
+            Insn insn = code.get(pc++);
+            switch (insn.op) {
+                case "function":
+                case "label":
+                    break;
+                case "push": {
+                    int v;
+                    switch (insn.arg) {
+                        case "constant": v = insn.n; break;
+                        case "local": v = locals[insn.n]; break;
+                        case "argument": v = args[insn.n]; break;
+                        case "this": v = ram[address(thisBase + insn.n)]; break;
+                        case "that": v = ram[address(thatBase + insn.n)]; break;
+                        case "pointer": v = (insn.n == 0) ? thisBase : thatBase; break;
+                        case "temp": v = ram[TEMP_BASE + insn.n]; break;
+                        case "static": v = statics(statics, insn.cls)[insn.n]; break;
+                        default: throw new IllegalStateException("push " + insn.arg);
+                    }
+                    stack[sp++] = s16(v);
+                    break;
+                }
+                case "pop": {
+                    int v = stack[--sp];
+                    switch (insn.arg) {
+                        case "local": locals[insn.n] = v; break;
+                        case "argument": args[insn.n] = v; break;
+                        case "this": ram[address(thisBase + insn.n)] = v; break;
+                        case "that": ram[address(thatBase + insn.n)] = v; break;
+                        case "pointer":
+                            if (insn.n == 0) {
+                                thisBase = v & 0xffff;
+                            } else {
+                                thatBase = v & 0xffff;
+                            }
+                            break;
+                        case "temp": ram[TEMP_BASE + insn.n] = v; break;
+                        case "static": statics(statics, insn.cls)[insn.n] = v; break;
+                        default: throw new IllegalStateException("pop " + insn.arg);
+                    }
+                    break;
+                }
+                case "add": sp--; stack[sp - 1] = s16(stack[sp - 1] + stack[sp]); break;
+                case "sub": sp--; stack[sp - 1] = s16(stack[sp - 1] - stack[sp]); break;
+                case "and": sp--; stack[sp - 1] &= stack[sp]; break;
+                case "or": sp--; stack[sp - 1] |= stack[sp]; break;
+                case "eq": sp--; stack[sp - 1] = (stack[sp - 1] == stack[sp]) ? -1 : 0; break;
+                case "gt": sp--; stack[sp - 1] = (stack[sp - 1] > stack[sp]) ? -1 : 0; break;
+                case "lt": sp--; stack[sp - 1] = (stack[sp - 1] < stack[sp]) ? -1 : 0; break;
+                case "neg": stack[sp - 1] = s16(-stack[sp - 1]); break;
+                case "not": stack[sp - 1] = ~stack[sp - 1]; break;
+                case "goto":
+                    pc = insn.target;
+                    break;
+                case "if-goto":
+                    if (stack[--sp] != 0) {
+                        pc = insn.target;
+                    }
+                    break;
+                case "call": {
+                    int[] callArgs = new int[insn.n];
+                    sp -= insn.n;
+                    System.arraycopy(stack, sp, callArgs, 0, insn.n);
+                    Integer start = functions.get(insn.arg);
+                    if (start == null) {
+                        if (insn.arg.equals("Sys.halt")) {
+                            return new Result(true, output, steps);
+                        }
+                        stack[sp++] = s16(os(insn.arg, callArgs, ram, heap, keyCalls,
+                            nextNumber, output));
+                        break;
+                    }
+                    frames.add(new Frame(pc, locals, args, thisBase, thatBase, sp));
+                    pc = start;
+                    locals = new int[code.get(start).n];
+                    args = callArgs;
+                    break;
+                }
+                case "return": {
+                    int v = stack[--sp];
+                    if (frames.isEmpty()) {
+                        return new Result(true, output, steps);
+                    }
+                    Frame frame = frames.remove(frames.size() - 1);
+                    if (sp != frame.depth) {
+                        throw new IllegalStateException("Stack imbalance before " + insn.cls);
+                    }
+                    pc = frame.pc;
+                    locals = frame.locals;
+                    args = frame.args;
+                    thisBase = frame.thisBase;
+                    thatBase = frame.thatBase;
+                    stack[sp++] = v;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown command " + insn.op);
+            }
+        }
+        return new Result(false, output, limit);
+    }
+
+    private int os(String name, int[] a, int[] ram, int[] heap, int[] keyCalls,
+                   int[] nextNumber, List<String> output) {
+        switch (name) {
+            case "Memory.alloc":
+            case "Array.new": {
+                int address = heap[0];
+                heap[0] += Math.max(a[0], 1) + 1;
+                if (heap[0] > HEAP_END) {
+                    throw new IllegalStateException("Out of heap");
+                }
+                return address;
+            }
+            case "String.new": {
+                int address = os("Memory.alloc", new int[] {a[0] + 2}, ram, heap, keyCalls,
+                    nextNumber, output);
+                ram[address] = 0;
+                return address;
+            }
+            case "String.appendChar":
+                ram[a[0] + 1 + ram[a[0]]] = a[1];
+                ram[a[0]]++;
+                return a[0];
+            case "String.length":
+                return ram[a[0]];
+            case "String.charAt":
+                return ram[a[0] + 1 + a[1]];
+            case "Memory.deAlloc":
+            case "Array.dispose":
+            case "String.dispose":
+                return 0;
+            case "Output.printString":
+                output.add(name + " " + string(ram, a[0]));
+                return 0;
+            case "Keyboard.readInt":
+                output.add(name + " " + string(ram, a[0]));
+                return (nextNumber[0] < numbers.length) ? numbers[nextNumber[0]++] : 0;
+            case "Keyboard.keyPressed": {
+                int k = keyCalls[0]++ / KEY_CALLS;
+                return (k < keys.length) ? keys[k] : 0;
+            }
+            case "Math.multiply":
+                return a[0] * a[1];
+            case "Math.divide":
+                if (a[1] == 0) {
+                    throw new IllegalStateException("Division by zero");
+                }
+                return a[0] / a[1];
+            case "Math.abs":
+                return Math.abs(a[0]);
+            case "Math.min":
+                return Math.min(a[0], a[1]);
+            case "Math.max":
+                return Math.max(a[0], a[1]);
+            case "Math.sqrt":
+                return (int) Math.sqrt(a[0]);
+            default:
+                if (name.startsWith("Output.") || name.startsWith("Screen.")) {
+                    StringBuilder sb = new StringBuilder(name);
+                    for (int arg : a) {
+                        sb.append(' ').append(arg);
+                    }
+                    output.add(sb.toString());
+                    return 0;
+                }
+                if (name.startsWith("Sys.") && !name.equals("Sys.error")) {
+                    return 0;
+                }
+                throw new IllegalStateException("Unknown OS call " + name);
+        }
+    }
+
+    private static String string(int[] ram, int address) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ram[address]; i++) {
+            sb.append((char) ram[address + 1 + i]);
+        }
+        return sb.toString();
+    }
+
+    private static int[] statics(Map<String, int[]> statics, String cls) {
+        return statics.computeIfAbsent(cls, k -> new int[240]);
+    }
+
+    private static int address(int a) {
+        return a & 0x7fff;
+    }
+
+    private static int s16(int v) {
+        return (short) v;
+    }
+
+    static List<Path> list(Path dir, String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, glob)) {
+            for (Path p : ds) {
+                files.add(p);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+}